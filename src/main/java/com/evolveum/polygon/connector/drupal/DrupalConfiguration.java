@@ -38,6 +38,11 @@ public class DrupalConfiguration extends AbstractRestConfiguration {
      */
     private int pageSize = 20;
 
+    /**
+     * how many next pages are requested in advance when listing all objects (default=0, no read-ahead)
+     */
+    private int pageReadAhead = 0;
+
     /**
      * Array of custom fields configuration, for example:
      * <ul>
@@ -107,6 +112,154 @@ public class DrupalConfiguration extends AbstractRestConfiguration {
      */
     private Boolean dontReadUserDetailsWhenFindAllUsers = false;
 
+    /**
+     * how many user details are read in parallel when listing users with custom fields (default=1, read one by one)
+     */
+    private int userDetailsConcurrency = 1;
+
+    /**
+     * max. size in bytes of file (avatar) contents cached in memory by FID (default=10 MB, 0=only in fileCacheDirectory if set)
+     */
+    private long fileCacheMaxSize = 10 * 1024 * 1024;
+
+    /**
+     * local directory, where are cached file (avatar) contents spilled from memory (default=not set, cache only in memory)
+     */
+    private String fileCacheDirectory;
+
+    /**
+     * max. size in bytes of file (avatar) contents spilled to fileCacheDirectory (default=1 GB)
+     */
+    private long fileCacheDirectoryMaxSize = 1024 * 1024 * 1024;
+
+    /**
+     * user timestamp column used when synchronizing users: created, access or login (default=created)
+     * <p>
+     * Drupal 7 users don't have any 'changed' column, so with default 'created' live sync returns only new users,
+     * never modified ones. Use snapshotSyncObjectClasses to detect modified and deleted users.
+     */
+    private String userSyncColumn = "created";
+
+    /**
+     * object classes, which are synchronized by comparing with local snapshot instead of timestamps, for example '__ACCOUNT__' or 'term_location'
+     */
+    private String[] snapshotSyncObjectClasses;
+
+    /**
+     * local directory, where snapshots for snapshotSyncObjectClasses are stored
+     */
+    private String snapshotSyncDirectory;
+
+    /**
+     * max. count of values in one list call, when searching by OR of several UIDs, names or e-mails (default=50, 0=search value by value)
+     */
+    private int filterBatchSize = 50;
+
+    /**
+     * how many values are searched in parallel, when Drupal can't filter on a set of values (default=4)
+     */
+    private int filterConcurrency = 4;
+
+    /**
+     * list all objects ordered by ID and request next page by 'ID > last ID' instead of page offset (default=false)
+     */
+    private Boolean keysetPaging = false;
+
+    /**
+     * count remaining objects in paged search result by listing their IDs once per search (default=false, remaining count is unknown)
+     */
+    private Boolean countRemainingPagedResults = false;
+
+    /**
+     * count of ID ranges listed concurrently, when listing all objects (default=1, one sequential stream of pages)
+     */
+    private int findAllPartitions = 1;
+
+    /**
+     * return objects listed in findAllPartitions ordered by ID (default=false, as they are received)
+     */
+    private Boolean findAllPartitionsOrdered = false;
+
+    /**
+     * tune page size for every listed resource by response time (default=false, pageSize is always used)
+     */
+    private Boolean adaptivePageSize = false;
+
+    /**
+     * min. page size, when adaptivePageSize is enabled (default=10)
+     */
+    private int pageSizeMin = 10;
+
+    /**
+     * max. page size, when adaptivePageSize is enabled (default=1000)
+     */
+    private int pageSizeMax = 1000;
+
+    /**
+     * target response time in ms for one page, when adaptivePageSize is enabled (default=2000)
+     */
+    private long pageResponseTimeTarget = 2000;
+
+    /**
+     * endpoints listing complete records with all fields (for example Views JSON export) by object class, for example '__ACCOUNT__=/users_export'
+     */
+    private String[] fullRecordEndpoints;
+
+    /**
+     * custom fields in fullRecordEndpoints are plain values instead of Services 'und' structure (default=false)
+     */
+    private Boolean fullRecordFlatFields = false;
+
+    /**
+     * protocol used to communicate with Drupal: services (Drupal 7 Services module) or jsonapi (Drupal 8+ JSON:API module, read only) (default=services)
+     */
+    private String protocol = "services";
+
+    /**
+     * if true, init don't wait for taxonomyCache and nodeCache warmup, they are listed in background (default=true)
+     */
+    private Boolean asyncCacheWarmup = true;
+
+    /**
+     * taxonomy machine names and node types, which are never listed to taxonomyCache or nodeCache, their names are only read on demand
+     */
+    private String[] lazyReferences;
+
+    /**
+     * if true, taxonomyCache and nodeCache are shared by all connector instances with the same Drupal and reference configuration (default=true)
+     */
+    private Boolean shareReferenceCaches = true;
+
+    /**
+     * local directory, where taxonomyCache and nodeCache are stored and loaded from after restart (default=not set, always listed)
+     */
+    private String referenceSnapshotDirectory;
+
+    /**
+     * max. age in ms of vocabulary or node type stored in reference snapshot, older ones are listed again (default=86400000, 0 not limited)
+     */
+    private long referenceSnapshotMaxAge = 24 * 60 * 60 * 1000;
+
+    /**
+     * time to live in ms of not found or mismatched TIDs and NIDs in taxonomyCache and nodeCache (default=300000, 0 disables it)
+     */
+    private long negativeCacheTtl = 5 * 60 * 1000;
+
+    /**
+     * max. count of cached nodes for every referenced node type, not recently used nodes are evicted (default=0, not limited)
+     */
+    private int nodeCacheMaxSize = 0;
+
+    /**
+     * interval in ms, after which nodes changed since the last refresh are read to nodeCache (default=0, never refreshed)
+     */
+    private long nodeCacheRefreshInterval = 0;
+
+    /**
+     * max. count of remembered digests of user files, least recently used are forgotten (default=10000)
+     */
+    private int fileDigestMaxCount = 10000;
+
     /* * * * * * * * * * * * * * * * * * *
     only parsed metadatas from configuration
      * * * * * * * * * * * * * * * * * * * */
@@ -294,6 +447,16 @@ public class DrupalConfiguration extends AbstractRestConfiguration {
         this.pageSize = pageSize;
     }
 
+    @ConfigurationProperty(displayMessageKey = "drupal.config.pageReadAhead",
+            helpMessageKey = "drupal.config.pageReadAhead.help")
+    public int getPageReadAhead() {
+        return pageReadAhead;
+    }
+
+    public void setPageReadAhead(int pageReadAhead) {
+        this.pageReadAhead = pageReadAhead;
+    }
+
     @ConfigurationProperty(displayMessageKey = "drupal.config.userFields",
             helpMessageKey = "drupal.config.userFields.help")
     public String[] getUserFields() {
@@ -374,6 +537,296 @@ public class DrupalConfiguration extends AbstractRestConfiguration {
         this.dontReadUserDetailsWhenFindAllUsers = dontReadUserDetailsWhenFindAllUsers;
     }
 
+    @ConfigurationProperty(displayMessageKey = "drupal.config.userDetailsConcurrency",
+            helpMessageKey = "drupal.config.userDetailsConcurrency.help")
+    public int getUserDetailsConcurrency() {
+        return userDetailsConcurrency;
+    }
+
+    public void setUserDetailsConcurrency(int userDetailsConcurrency) {
+        this.userDetailsConcurrency = userDetailsConcurrency;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fileCacheMaxSize",
+            helpMessageKey = "drupal.config.fileCacheMaxSize.help")
+    public long getFileCacheMaxSize() {
+        return fileCacheMaxSize;
+    }
+
+    public void setFileCacheMaxSize(long fileCacheMaxSize) {
+        this.fileCacheMaxSize = fileCacheMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fileCacheDirectory",
+            helpMessageKey = "drupal.config.fileCacheDirectory.help")
+    public String getFileCacheDirectory() {
+        return fileCacheDirectory;
+    }
+
+    public void setFileCacheDirectory(String fileCacheDirectory) {
+        this.fileCacheDirectory = fileCacheDirectory;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fileCacheDirectoryMaxSize",
+            helpMessageKey = "drupal.config.fileCacheDirectoryMaxSize.help")
+    public long getFileCacheDirectoryMaxSize() {
+        return fileCacheDirectoryMaxSize;
+    }
+
+    public void setFileCacheDirectoryMaxSize(long fileCacheDirectoryMaxSize) {
+        this.fileCacheDirectoryMaxSize = fileCacheDirectoryMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.userSyncColumn",
+            helpMessageKey = "drupal.config.userSyncColumn.help")
+    public String getUserSyncColumn() {
+        return userSyncColumn;
+    }
+
+    public void setUserSyncColumn(String userSyncColumn) {
+        this.userSyncColumn = userSyncColumn;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.snapshotSyncObjectClasses",
+            helpMessageKey = "drupal.config.snapshotSyncObjectClasses.help")
+    public String[] getSnapshotSyncObjectClasses() {
+        return snapshotSyncObjectClasses;
+    }
+
+    public void setSnapshotSyncObjectClasses(String[] snapshotSyncObjectClasses) {
+        this.snapshotSyncObjectClasses = snapshotSyncObjectClasses;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.snapshotSyncDirectory",
+            helpMessageKey = "drupal.config.snapshotSyncDirectory.help")
+    public String getSnapshotSyncDirectory() {
+        return snapshotSyncDirectory;
+    }
+
+    public void setSnapshotSyncDirectory(String snapshotSyncDirectory) {
+        this.snapshotSyncDirectory = snapshotSyncDirectory;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.filterBatchSize",
+            helpMessageKey = "drupal.config.filterBatchSize.help")
+    public int getFilterBatchSize() {
+        return filterBatchSize;
+    }
+
+    public void setFilterBatchSize(int filterBatchSize) {
+        this.filterBatchSize = filterBatchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.filterConcurrency",
+            helpMessageKey = "drupal.config.filterConcurrency.help")
+    public int getFilterConcurrency() {
+        return filterConcurrency;
+    }
+
+    public void setFilterConcurrency(int filterConcurrency) {
+        this.filterConcurrency = filterConcurrency;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.keysetPaging",
+            helpMessageKey = "drupal.config.keysetPaging.help")
+    public Boolean getKeysetPaging() {
+        return keysetPaging;
+    }
+
+    public void setKeysetPaging(Boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.countRemainingPagedResults",
+            helpMessageKey = "drupal.config.countRemainingPagedResults.help")
+    public Boolean getCountRemainingPagedResults() {
+        return countRemainingPagedResults;
+    }
+
+    public void setCountRemainingPagedResults(Boolean countRemainingPagedResults) {
+        this.countRemainingPagedResults = countRemainingPagedResults;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.findAllPartitions",
+            helpMessageKey = "drupal.config.findAllPartitions.help")
+    public int getFindAllPartitions() {
+        return findAllPartitions;
+    }
+
+    public void setFindAllPartitions(int findAllPartitions) {
+        this.findAllPartitions = findAllPartitions;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.findAllPartitionsOrdered",
+            helpMessageKey = "drupal.config.findAllPartitionsOrdered.help")
+    public Boolean getFindAllPartitionsOrdered() {
+        return findAllPartitionsOrdered;
+    }
+
+    public void setFindAllPartitionsOrdered(Boolean findAllPartitionsOrdered) {
+        this.findAllPartitionsOrdered = findAllPartitionsOrdered;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.adaptivePageSize",
+            helpMessageKey = "drupal.config.adaptivePageSize.help")
+    public Boolean getAdaptivePageSize() {
+        return adaptivePageSize;
+    }
+
+    public void setAdaptivePageSize(Boolean adaptivePageSize) {
+        this.adaptivePageSize = adaptivePageSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.pageSizeMin",
+            helpMessageKey = "drupal.config.pageSizeMin.help")
+    public int getPageSizeMin() {
+        return pageSizeMin;
+    }
+
+    public void setPageSizeMin(int pageSizeMin) {
+        this.pageSizeMin = pageSizeMin;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.pageSizeMax",
+            helpMessageKey = "drupal.config.pageSizeMax.help")
+    public int getPageSizeMax() {
+        return pageSizeMax;
+    }
+
+    public void setPageSizeMax(int pageSizeMax) {
+        this.pageSizeMax = pageSizeMax;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.pageResponseTimeTarget",
+            helpMessageKey = "drupal.config.pageResponseTimeTarget.help")
+    public long getPageResponseTimeTarget() {
+        return pageResponseTimeTarget;
+    }
+
+    public void setPageResponseTimeTarget(long pageResponseTimeTarget) {
+        this.pageResponseTimeTarget = pageResponseTimeTarget;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fullRecordEndpoints",
+            helpMessageKey = "drupal.config.fullRecordEndpoints.help")
+    public String[] getFullRecordEndpoints() {
+        return fullRecordEndpoints;
+    }
+
+    public void setFullRecordEndpoints(String[] fullRecordEndpoints) {
+        this.fullRecordEndpoints = fullRecordEndpoints;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fullRecordFlatFields",
+            helpMessageKey = "drupal.config.fullRecordFlatFields.help")
+    public Boolean getFullRecordFlatFields() {
+        return fullRecordFlatFields;
+    }
+
+    public void setFullRecordFlatFields(Boolean fullRecordFlatFields) {
+        this.fullRecordFlatFields = fullRecordFlatFields;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.protocol",
+            helpMessageKey = "drupal.config.protocol.help")
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.asyncCacheWarmup",
+            helpMessageKey = "drupal.config.asyncCacheWarmup.help")
+    public Boolean getAsyncCacheWarmup() {
+        return asyncCacheWarmup;
+    }
+
+    public void setAsyncCacheWarmup(Boolean asyncCacheWarmup) {
+        this.asyncCacheWarmup = asyncCacheWarmup;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.lazyReferences",
+            helpMessageKey = "drupal.config.lazyReferences.help")
+    public String[] getLazyReferences() {
+        return lazyReferences;
+    }
+
+    public void setLazyReferences(String[] lazyReferences) {
+        this.lazyReferences = lazyReferences;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.shareReferenceCaches",
+            helpMessageKey = "drupal.config.shareReferenceCaches.help")
+    public Boolean getShareReferenceCaches() {
+        return shareReferenceCaches;
+    }
+
+    public void setShareReferenceCaches(Boolean shareReferenceCaches) {
+        this.shareReferenceCaches = shareReferenceCaches;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.referenceSnapshotDirectory",
+            helpMessageKey = "drupal.config.referenceSnapshotDirectory.help")
+    public String getReferenceSnapshotDirectory() {
+        return referenceSnapshotDirectory;
+    }
+
+    public void setReferenceSnapshotDirectory(String referenceSnapshotDirectory) {
+        this.referenceSnapshotDirectory = referenceSnapshotDirectory;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.referenceSnapshotMaxAge",
+            helpMessageKey = "drupal.config.referenceSnapshotMaxAge.help")
+    public long getReferenceSnapshotMaxAge() {
+        return referenceSnapshotMaxAge;
+    }
+
+    public void setReferenceSnapshotMaxAge(long referenceSnapshotMaxAge) {
+        this.referenceSnapshotMaxAge = referenceSnapshotMaxAge;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.negativeCacheTtl",
+            helpMessageKey = "drupal.config.negativeCacheTtl.help")
+    public long getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    public void setNegativeCacheTtl(long negativeCacheTtl) {
+        this.negativeCacheTtl = negativeCacheTtl;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.nodeCacheMaxSize",
+            helpMessageKey = "drupal.config.nodeCacheMaxSize.help")
+    public int getNodeCacheMaxSize() {
+        return nodeCacheMaxSize;
+    }
+
+    public void setNodeCacheMaxSize(int nodeCacheMaxSize) {
+        this.nodeCacheMaxSize = nodeCacheMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.nodeCacheRefreshInterval",
+            helpMessageKey = "drupal.config.nodeCacheRefreshInterval.help")
+    public long getNodeCacheRefreshInterval() {
+        return nodeCacheRefreshInterval;
+    }
+
+    public void setNodeCacheRefreshInterval(long nodeCacheRefreshInterval) {
+        this.nodeCacheRefreshInterval = nodeCacheRefreshInterval;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "drupal.config.fileDigestMaxCount",
+            helpMessageKey = "drupal.config.fileDigestMaxCount.help")
+    public int getFileDigestMaxCount() {
+        return fileDigestMaxCount;
+    }
+
+    public void setFileDigestMaxCount(int fileDigestMaxCount) {
+        this.fileDigestMaxCount = fileDigestMaxCount;
+    }
+
     @ConfigurationProperty(displayMessageKey = "drupal.config.createTaxonomyWhenNameNotExists",
             helpMessageKey = "drupal.config.createTaxonomyWhenNameNotExists.help")
     public String[] getCreateTaxonomyWhenNameNotExists() {
@@ -443,6 +896,70 @@ public class DrupalConfiguration extends AbstractRestConfiguration {
         return false;
     }
 
+    public boolean isSnapshotSync(String objectClass) {
+        if (snapshotSyncObjectClasses == null || snapshotSyncObjectClasses.length == 0) {
+            return false;
+        }
+        if (StringUtil.isEmpty(snapshotSyncDirectory)) {
+            throw new ConfigurationException("snapshotSyncDirectory is mandatory when snapshotSyncObjectClasses are set");
+        }
+        for (String snapshotObjectClass : snapshotSyncObjectClasses) {
+            if (objectClass.equals(snapshotObjectClass)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true, if Drupal is accessed over JSON:API module instead of Services
+     */
+    public boolean isJsonApi() {
+        if (StringUtil.isEmpty(protocol) || "services".equals(protocol)) {
+            return false;
+        }
+        if ("jsonapi".equals(protocol)) {
+            return true;
+        }
+        throw new ConfigurationException("please use correct protocol 'services' or 'jsonapi', got: " + protocol);
+    }
+
+    /**
+     * @return path or URL of endpoint listing complete records of object class, or null when not configured
+     */
+    public String getFullRecordEndpoint(String objectClass) {
+        if (fullRecordEndpoints == null) {
+            return null;
+        }
+        for (String endpoint : fullRecordEndpoints) {
+            if (StringUtil.isEmpty(endpoint)) {
+                continue;
+            }
+            String[] objectClassToEndpoint = endpoint.split("=", 2);
+            if (objectClassToEndpoint.length != 2 || StringUtil.isEmpty(objectClassToEndpoint[1])) {
+                throw new ConfigurationException("please use correct full record endpoint definition, for example: '__ACCOUNT__=/users_export' ({object class}={path or URL}), got: " + endpoint);
+            }
+            if (objectClass.equals(objectClassToEndpoint[0])) {
+                return objectClassToEndpoint[1];
+            }
+        }
+        return null;
+    }
+
+    public boolean isLazyReference(String machineNameOrType) {
+        if (lazyReferences == null || lazyReferences.length == 0) {
+            return false;
+        }
+        for (String lazyReference : lazyReferences) {
+            if (machineNameOrType.equals(lazyReference)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     public boolean isCreateTaxonomyWhenNameNotExists(String machineName) {
         if (createTaxonomyWhenNameNotExists==null || createTaxonomyWhenNameNotExists.length == 0) {
             return false;
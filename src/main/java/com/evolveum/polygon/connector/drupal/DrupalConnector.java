@@ -20,7 +20,13 @@ import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.*;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.ssl.TrustStrategy;
 import org.apache.http.util.EntityUtils;
 import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.StringUtil;
@@ -38,28 +44,34 @@ import org.identityconnectors.framework.spi.operations.*;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.io.*;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author semancik, oscar
  *
  */
 @ConnectorClass(displayNameKey = "drupal.connector.display", configurationClass = DrupalConfiguration.class)
-public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration> implements PoolableConnector, TestOp, SchemaOp, CreateOp, DeleteOp, UpdateOp, SearchOp<DrupalFilter> {
+public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration> implements PoolableConnector, TestOp, SchemaOp, CreateOp, DeleteOp, UpdateOp, SearchOp<DrupalFilter>, SyncOp {
 
     private static final Log LOG = Log.getLog(DrupalConnector.class);
 
     protected static final String ATTR_NAME = "name"; //icfs:name
     private static final String ATTR_PASS = "pass"; // OperationalAttributes.PASSWORD
-    private static final String ATTR_STATUS = "status"; // OperationalAttributes.ENABLE
+    protected static final String ATTR_STATUS = "status"; // OperationalAttributes.ENABLE
     public static final String ATTR_MAIL = "mail";
     public static final String ATTR_THEME = "theme";
     private static final String ATTR_SIGNATURE = "signature";
@@ -68,7 +80,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     private static final String ATTR_ACCESS = "access";
     private static final String ATTR_LOGIN = "login";
     private static final String ATTR_TIMEZONE = "timezone";
-    private static final String ATTR_LANGUAGE = "language";
+    protected static final String ATTR_LANGUAGE = "language";
     // TODO avatar?
     public static final String ATTR_ROLES = "roles";
 
@@ -81,8 +93,8 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     protected static final String FILE = "/file";
 
     // json strings
-    private static final String UND = "und";
-    private static final String UID = "uid"; // user ID
+    protected static final String UND = "und";
+    protected static final String UID = "uid"; // user ID
     protected static final String TID = "tid"; // taxonomy ID
     protected static final String VID = "vid"; // vocabulary ID
     protected static final String NID = "nid"; // node ID
@@ -94,8 +106,8 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     // taxonomy
     public static final String OC_TERM_Prefix = "term_";
     protected static final String ATTR_TAX_VOCABULARY_MACHINE_NAME = "vocabulary_machine_name";
-    private static final String ATTR_TAX_DESCRIPTION = "description";
-    private static final String ATTR_TAX_FORMAT = "format";
+    protected static final String ATTR_TAX_DESCRIPTION = "description";
+    protected static final String ATTR_TAX_FORMAT = "format";
     public static final String ATTR_TAX_WEIGHT = "weight";
     protected static final String ATTR_TAX_WEIGHT_DEFAULT = "0";
     public static final String ATTR_TAX_PARENT = "parent";
@@ -108,7 +120,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     protected static final String ATTR_NODE_TYPE = "type";
     public static final String ATTR_NODE_BODY = "body";
     private static final String ATTR_NODE_CREATED = "created";
-    private static final String ATTR_NODE_CHANGED = "changed";
+    protected static final String ATTR_NODE_CHANGED = "changed";
 
     // file
     private static final String ATTR_FILE_FILENAME = "filename";
@@ -116,10 +128,52 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     private static final String ATTR_FILE_STATUS_DEFAULT = "0";
     private static final String ATTR_FILE_FILE = "file";
 
+    // sync
+    private static final String SYNC_TOKEN_SEPARATOR = ":";
+    private static final String SNAPSHOT_TOKEN_PREFIX = "snapshot" + SYNC_TOKEN_SEPARATOR;
+
+    // columns, which are returned also when listing (not only in details)
+    private static final List<String> USER_COLUMNS = Arrays.asList(UID, ATTR_NAME, ATTR_MAIL, ATTR_THEME, ATTR_SIGNATURE, ATTR_SIGNATURE_FORMAT,
+            ATTR_CREATED, ATTR_ACCESS, ATTR_LOGIN, ATTR_STATUS, ATTR_TIMEZONE, ATTR_LANGUAGE);
+    private static final List<String> TAXONOMY_COLUMNS = Arrays.asList(TID, VID, ATTR_NAME, ATTR_TAX_DESCRIPTION, ATTR_TAX_FORMAT, ATTR_TAX_WEIGHT);
+    private static final List<String> NODE_COLUMNS = Arrays.asList(NID, ATTR_NODE_TYPE, ATTR_NODE_TITLE, ATTR_NODE_STATUS, ATTR_NODE_CREATED, ATTR_NODE_CHANGED);
+
     public TaxonomyCache taxonomyCache;
 
     public NodeCache nodeCache;
 
+    /**
+     * taxonomyCache and nodeCache, when they are shared with other connector instances
+     */
+    private ReferenceCacheRegistry.SharedCaches sharedCaches;
+
+    public FileCache fileCache;
+
+    /**
+     * reading over JSON:API, null when protocol is Services
+     */
+    JsonApiBackend jsonApi;
+
+    PageSizeTuner pageSizeTuner;
+
+    private ExecutorService executor;
+
+    /**
+     * pooled HTTP client of this connector instance, used by concurrent requests, see getMaxConnections()
+     */
+    private CloseableHttpClient httpClient;
+
+    /**
+     * Drupal don't support comma separated values in list parameters, search value by value
+     */
+    private volatile boolean multiValueFilterUnsupported = false;
+
+    /**
+     * entities (taxonomies, nodes), which details (custom fields) Drupal don't return by list call filtered by IDs,
+     * they are read one by one
+     */
+    private final Set<String> batchedDetailsUnsupported = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     @Override
     public void test() {
         if (getConfiguration().getSkipTestConnection()){
@@ -127,6 +181,10 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         } else {
             LOG.ok("test - reading admin user");
             try {
+                if (jsonApi != null) {
+                    jsonApi.test();
+                    return;
+                }
                 HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "/1");
                 callRequest(request, true);
             } catch (IOException e) {
@@ -141,10 +199,24 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         LOG.ok("configuration: {0}", ((DrupalConfiguration) this.getConfiguration()).toString());
 
         getConfiguration().parseMetadatas();
+        if (getConfiguration().isJsonApi()) {
+            jsonApi = new JsonApiBackend(this);
+        }
+
+        pageSizeTuner = new PageSizeTuner(getConfiguration().getAdaptivePageSize(), getConfiguration().getPageSize(),
+                getConfiguration().getPageSizeMin(), getConfiguration().getPageSizeMax(), getConfiguration().getPageResponseTimeTarget());
+        fileCache = new FileCache(getConfiguration().getFileCacheMaxSize(), getConfiguration().getFileCacheDirectory(), getConfiguration().getFileCacheDirectoryMaxSize(),
+                getConfiguration().getFileDigestMaxCount());
 
         try {
-            taxonomyCache = new TaxonomyCache(this);
-            nodeCache = new NodeCache(this);
+            if (getConfiguration().getShareReferenceCaches()) {
+                sharedCaches = ReferenceCacheRegistry.acquire(this);
+                taxonomyCache = sharedCaches.getTaxonomyCache();
+                nodeCache = sharedCaches.getNodeCache();
+            } else {
+                taxonomyCache = new TaxonomyCache(this);
+                nodeCache = new NodeCache(this);
+            }
         } catch (IOException e) {
             throw new ConnectorIOException("Error while initializing taxonomyCache: " + e.getMessage(), e);
         }
@@ -153,6 +225,12 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     @Override
     public void dispose() {
         super.dispose();
+        if (sharedCaches != null) {
+            ReferenceCacheRegistry.release(this, sharedCaches);
+            sharedCaches = null;
+            taxonomyCache = null;
+            nodeCache = null;
+        }
         if (taxonomyCache != null) {
             taxonomyCache.clear();
             taxonomyCache = null;
@@ -161,6 +239,121 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
             nodeCache.clear();
             nodeCache = null;
         }
+        if (fileCache != null) {
+            fileCache.clear();
+            fileCache = null;
+        }
+        if (jsonApi != null) {
+            jsonApi.clear();
+            jsonApi = null;
+        }
+        if (pageSizeTuner != null) {
+            LOG.ok("disposing {0}", pageSizeTuner);
+            pageSizeTuner = null;
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            if (httpClient != null) {
+                try {
+                    httpClient.close();
+                } catch (IOException e) {
+                    LOG.warn(e, "Error when closing HTTP client: {0}", e.getMessage());
+                }
+                httpClient = null;
+            }
+        }
+    }
+
+    /**
+     * Max. count of requests sent at the same time: listed pages (read in advance, from findAllPartitions ranges or
+     * searched value by value), user details read in parallel with them and one request of reference cache loading.
+     */
+    int getMaxConnections() {
+        int pages = Math.max(getConfiguration().getPageReadAhead() + 1,
+                Math.max(getConfiguration().getFindAllPartitions(), getConfiguration().getFilterConcurrency()));
+        return pages + Math.max(1, getConfiguration().getUserDetailsConcurrency()) + 1;
+    }
+
+    protected synchronized CloseableHttpClient getPooledHttpClient() {
+        if (httpClient == null) {
+            int maxConnections = getMaxConnections();
+            LOG.ok("creating HTTP client with {0} connections", maxConnections);
+            // authorization header is set by every request, proxy is taken from system properties
+            HttpClientBuilder builder = HttpClientBuilder.create().useSystemProperties()
+                    .setMaxConnPerRoute(maxConnections).setMaxConnTotal(maxConnections);
+            if (Boolean.TRUE.equals(getConfiguration().getTrustAllCertificates())) {
+                try {
+                    builder.setSSLContext(new SSLContextBuilder().loadTrustMaterial(null, new TrustStrategy() {
+                        @Override
+                        public boolean isTrusted(X509Certificate[] chain, String authType) {
+                            return true;
+                        }
+                    }).build());
+                } catch (GeneralSecurityException e) {
+                    throw new ConnectorException("Error when trusting all certificates: " + e.getMessage(), e);
+                }
+                builder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+            }
+            httpClient = builder.build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * All requests are sent by the pooled client, which holds a connection for every concurrently sent request.
+     */
+    @Override
+    public CloseableHttpResponse execute(HttpUriRequest request) {
+        try {
+            return getPooledHttpClient().execute(request);
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+    }
+
+    protected synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "drupal-connector-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    protected Future<JSONObject> readDetailAsync(final String uri) {
+        return getExecutor().submit(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() throws Exception {
+                HttpGet request = new HttpGet(uri);
+                return callRequest(request, true);
+            }
+        });
+    }
+
+    protected <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for parallel request: " + e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ConnectorException(cause.getMessage(), cause);
+        }
     }
 
     @Override
@@ -297,8 +490,15 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         }
     }
 
+    private void checkServicesProtocol(String operation) {
+        if (jsonApi != null) {
+            throw new UnsupportedOperationException("Operation " + operation + " is supported only with protocol 'services'");
+        }
+    }
+
     @Override
     public Uid create(ObjectClass objectClass, Set<Attribute> attributes, OperationOptions operationOptions) {
+        checkServicesProtocol("create");
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {    // __ACCOUNT__
             return createOrUpdateUser(null, attributes);
         } else {
@@ -375,7 +575,30 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         request.setHeader("Authorization", "Basic " + new String(credentials, StandardCharsets.UTF_8));
     }
 
+    /**
+     * Parse listed JSON array from response stream, records are held only as parsed objects,
+     * response body is not read to memory as text before.
+     */
     protected JSONArray callRequest(HttpRequestBase request) throws IOException {
+        final JSONArray records = new JSONArray();
+        int count = callRequest(request, new JsonRecordHandler() {
+            @Override
+            public boolean handle(JSONObject record) {
+                records.put(record);
+                return true;
+            }
+        });
+        LOG.ok("response records: {0}", count);
+        return records;
+    }
+
+    /**
+     * Parse listed JSON array from response stream and hand over his records one by one,
+     * without reading whole response body to memory.
+     *
+     * @return number of parsed records
+     */
+    protected int callRequest(HttpRequestBase request, JsonRecordHandler recordHandler) throws IOException {
         LOG.ok("request URI: {0}", request.getURI());
         request.setHeader("Content-Type", CONTENT_TYPE);
 
@@ -385,10 +608,47 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         LOG.ok("response: {0}", response);
         processDrupalResponseErrors(response);
 
-        String result = EntityUtils.toString(response.getEntity());
-        LOG.ok("response body: {0}", result);
-        closeResponse(response);
-        return new JSONArray(result);
+        int count = 0;
+        try {
+            HttpEntity entity = response.getEntity();
+            Charset charset = ContentType.getOrDefault(entity).getCharset();
+            Reader reader = new BufferedReader(new InputStreamReader(entity.getContent(), charset == null ? StandardCharsets.UTF_8 : charset));
+            JSONTokener tokener = new JSONTokener(reader);
+            if (tokener.nextClean() != '[') {
+                throw tokener.syntaxError("A JSONArray text must start with '['");
+            }
+            if (tokener.nextClean() == ']') {
+                return count;
+            }
+            tokener.back();
+            while (true) {
+                JSONObject record = new JSONObject(tokener);
+                count++;
+                if (!recordHandler.handle(record)) {
+                    LOG.ok("response body parsing stopped after {0} records", count);
+                    break;
+                }
+                char separator = tokener.nextClean();
+                if (separator == ']') {
+                    break;
+                } else if (separator != ',') {
+                    throw tokener.syntaxError("Expected a ',' or ']'");
+                }
+            }
+        } finally {
+            closeResponse(response);
+        }
+        return count;
+    }
+
+    /**
+     * Process one record of listed JSON array.
+     */
+    protected interface JsonRecordHandler {
+        /**
+         * @return false, if no more records are needed
+         */
+        boolean handle(JSONObject record) throws IOException;
     }
 
     private void processDrupalResponseErrors(CloseableHttpResponse response){
@@ -506,7 +766,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         }
 
         try {
-            handleFiles(attributes, jo, uid, name);
+            Map<String, FileCache.FileDigest> newFiles = handleFiles(attributes, jo, uid, name);
 
             HttpEntityEnclosingRequestBase request;
             if (create) {
@@ -519,19 +779,41 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
 
             String newUid = jores.getString(UID);
             LOG.info("response UID: {0}", newUid);
+            for (Map.Entry<String, FileCache.FileDigest> newFile : newFiles.entrySet()) {
+                fileCache.putDigest(newUid, newFile.getKey(), newFile.getValue());
+            }
             return new Uid(newUid);
         } catch (IOException e) {
             throw new ConnectorIOException(e.getMessage(), e);
         }
     }
 
-    private void handleFiles(Set<Attribute> attributes, JSONObject jo, Uid uid, String userName) throws IOException {
+    /**
+     * @return digests of new created files by file field name
+     */
+    private Map<String, FileCache.FileDigest> handleFiles(Set<Attribute> attributes, JSONObject jo, Uid uid, String userName) throws IOException {
+        Map<String, FileCache.FileDigest> newFiles = new HashMap<>();
         for (String fileFieldName : getConfiguration().getUser2files()) {
             byte[] fileContent = getAttr(attributes, fileFieldName + TRANSFORMED_POSTFIX, byte[].class);
             if (fileContent != null && fileContent.length > 0) {
                 String newFid = null; // don't need update
+                byte[] digest = FileCache.digest(fileContent);
+                FileCache.FileDigest knownDigest = uid == null ? null : fileCache.getDigest(uid.getUidValue(), fileFieldName);
+                // update user, we know what file he has now
+                if (knownDigest != null) {
+                    if (knownDigest.hasSameContent(digest)) {
+                        LOG.ok("user file for field {0} and UID {1} has the same digest as FID {2}, update is ignored", fileFieldName, uid.getUidValue(), knownDigest.getFid());
+                    } else {
+                        LOG.ok("user file for field {0} and UID {1} has other digest as FID {2}, creating new", fileFieldName, uid.getUidValue(), knownDigest.getFid());
+                        if (userName == null) {
+                            HttpGet requestUserDetail = new HttpGet(getConfiguration().getServiceAddress() + USER + "/" + uid.getUidValue());
+                            userName = callRequest(requestUserDetail, true).getString(ATTR_NAME);
+                        }
+                        newFid = createFile(fileContent, userName);
+                    }
+                }
                 // update user
-                if (uid != null) {
+                else if (uid != null) {
                     // read & compare with existing file
                     LOG.ok("need to update user file for field {0}, reading existing & comparing for UID: {1} ", fileFieldName, uid.getUidValue());
                     HttpGet requestUserDetail = new HttpGet(getConfiguration().getServiceAddress() + USER + "/" + uid.getUidValue());
@@ -544,16 +826,14 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                     if (fid != null) {
                         // existing user has file now
 
-                        HttpGet requestFileDetail = new HttpGet(getConfiguration().getServiceAddress() + FILE + "/" + fid);
-                        JSONObject file = callRequest(requestFileDetail, true);
-
-                        String fileFromResource = file.getString(ATTR_FILE_FILE);
-                        String fileFromMidPoint = Base64.encode(fileContent);
-                        if (!fileFromMidPoint.equals(fileFromResource)) {
+                        byte[] fileFromResource = readFile(fid);
+                        if (!Arrays.equals(fileContent, fileFromResource)) {
                             // need to create new file (old file is unlinked and deleted when no reference over drupal cron)
                             newFid = createFile(fileContent, userName);
+                        } else {
+                            // else we have already the same file content in resource, update is ignored
+                            fileCache.putDigest(uid.getUidValue(), fileFieldName, new FileCache.FileDigest(fid, digest));
                         }
-                        // else we have already the same file content in resource, update is ignored
                     } else {
                         // existing user don't has file now
                         newFid = createFile(fileContent, userName);
@@ -574,9 +854,11 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                     JSONObject und = new JSONObject();
                     und.put(UND, undArray);
                     jo.put(fileFieldName, und);
+                    newFiles.put(fileFieldName, new FileCache.FileDigest(newFid, digest));
                 }
             }
         }
+        return newFiles;
     }
 
     private String createFile(byte[] fileContent, String fileName) throws IOException {
@@ -605,7 +887,24 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         HttpPost request = new HttpPost(getConfiguration().getServiceAddress() + FILE);
         JSONObject file = callRequest(request, jo);
 
-        return file.getString(FID);
+        String fid = file.getString(FID);
+        if (fileCache.isEnabled()) {
+            fileCache.put(fid, fileContent);
+        }
+        return fid;
+    }
+
+    private byte[] readFile(String fid) throws IOException {
+        byte[] content = fileCache.isEnabled() ? fileCache.get(fid) : null;
+        if (content == null) {
+            HttpGet requestFileDetail = new HttpGet(getConfiguration().getServiceAddress() + FILE + "/" + fid);
+            JSONObject file = callRequest(requestFileDetail, true);
+            content = Base64.decode(file.getString(ATTR_FILE_FILE));
+            if (fileCache.isEnabled()) {
+                fileCache.put(fid, content);
+            }
+        }
+        return content;
     }
 
     private String getFidValue(JSONObject user, String fileField) {
@@ -806,12 +1105,12 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                 // taxonomy
                 String machineName = getConfiguration().getUser2taxonomies().get(fieldName);
                 if (machineName != null) {
-                    fieldValue = taxonomyCache.getIdOrCreate(machineName, fieldValue);
+                    fieldValue = taxonomyCache.getIdOrCreate(this, machineName, fieldValue);
                 }
                 // node
                 String type = getConfiguration().getUser2nodes().get(fieldName);
                 if (type != null) {
-                    fieldValue = nodeCache.getIdOrCreate(type, fieldValue);
+                    fieldValue = nodeCache.getIdOrCreate(this, type, fieldValue);
                 }
             }
 
@@ -848,6 +1147,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
 
     @Override
     public void delete(ObjectClass objectClass, Uid uid, OperationOptions operationOptions) {
+        checkServicesProtocol("delete");
         try {
             if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
                 if (getConfiguration().getUserDeleteDisabled()) {
@@ -889,6 +1189,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
 
     @Override
     public Uid update(ObjectClass objectClass, Uid uid, Set<Attribute> attributes, OperationOptions operationOptions) {
+        checkServicesProtocol("update");
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
             return createOrUpdateUser(uid, attributes);
         } else {
@@ -908,57 +1209,465 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     }
 
 
+    /**
+     * How are objects of one object class listed over Services index resource.
+     */
+    private class ListedEntity {
+        /**
+         * list URI with object class parameters, without paging, next query parameters starts with '&'
+         */
+        final String listUri;
+        final String idColumn;
+        final String nameColumn;
+        final List<String> columns;
+        /**
+         * timestamp column, which is changed with the object, or null when not exists
+         */
+        final String changedColumn;
+        private final String[] requiredColumns;
+        private final String typeName;
+        /**
+         * URI of endpoint listing complete records (fullRecordEndpoints), or null when not configured
+         */
+        String fullRecordUri;
+
+        ListedEntity(String listUri, String idColumn, String nameColumn, List<String> columns, String changedColumn, String typeName, String... requiredColumns) {
+            this.listUri = listUri;
+            this.idColumn = idColumn;
+            this.nameColumn = nameColumn;
+            this.columns = columns;
+            this.changedColumn = changedColumn;
+            this.typeName = typeName;
+            this.requiredColumns = requiredColumns;
+        }
+
+        String processFieldsOptions(OperationOptions options, String... otherRequiredColumns) {
+            List<String> required = new ArrayList<>(Arrays.asList(requiredColumns));
+            required.addAll(Arrays.asList(otherRequiredColumns));
+            return DrupalConnector.this.processFieldsOptions(options, idColumn, nameColumn, columns, required.toArray(new String[required.size()]));
+        }
+
+        /**
+         * @return configured custom fields and their value keys in 'und' structure
+         */
+        Map<String, String> getFieldMetadatas() {
+            if (UID.equals(idColumn)) {
+                return getConfiguration().getUserMetadatas();
+            } else if (TID.equals(idColumn)) {
+                return getConfiguration().getTaxonomiesMetadatas().get(typeName);
+            } else {
+                Map<String, String> fields = new HashMap<>(getConfiguration().getNodesMetadatas().get(typeName));
+                fields.put(ATTR_NODE_BODY, VALUE);
+                return fields;
+            }
+        }
+
+        PageProcessor newPageProcessor(ResultsHandler handler, OperationOptions options, boolean findAll) {
+            if (UID.equals(idColumn)) {
+                return new UserPageProcessor(handler, options, findAll);
+            } else if (TID.equals(idColumn)) {
+                return new TaxonomyPageProcessor(typeName, handler, options);
+            } else {
+                return new NodePageProcessor(typeName, handler, options);
+            }
+        }
+    }
+
+    private ListedEntity getListedEntity(ObjectClass objectClass) {
+        if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return withFullRecordUri(new ListedEntity(getConfiguration().getServiceAddress() + USER + "?", UID, ATTR_NAME, USER_COLUMNS,
+                    getConfiguration().getUserSyncColumn(), null), ObjectClass.ACCOUNT_NAME);
+        }
+        for (String machineName : getConfiguration().getTaxonomiesMetadatas().keySet()) {
+            if (objectClass.is(OC_TERM_Prefix + machineName)) {
+                return withFullRecordUri(new ListedEntity(getConfiguration().getServiceAddress() + TAXONOMY_TERM + "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName),
+                        TID, ATTR_NAME, TAXONOMY_COLUMNS, null, machineName, VID), OC_TERM_Prefix + machineName);
+            }
+        }
+        for (String type : getConfiguration().getNodesMetadatas().keySet()) {
+            if (objectClass.is(OC_NODE_Prefix + type)) {
+                return withFullRecordUri(new ListedEntity(getConfiguration().getServiceAddress() + NODE + "?parameters[" + ATTR_NODE_TYPE + "]=" + type,
+                        NID, ATTR_NODE_TITLE, NODE_COLUMNS, ATTR_NODE_CHANGED, type, ATTR_NODE_TYPE), OC_NODE_Prefix + type);
+            }
+        }
+        // not found
+        throw new UnsupportedOperationException("Unsupported object class " + objectClass);
+    }
+
+    private ListedEntity withFullRecordUri(ListedEntity entity, String objectClassName) {
+        String endpoint = getConfiguration().getFullRecordEndpoint(objectClassName);
+        if (endpoint != null) {
+            String uri = endpoint.startsWith("http://") || endpoint.startsWith("https://") ? endpoint : getConfiguration().getServiceAddress() + endpoint;
+            // paging parameters are appended with '&'
+            entity.fullRecordUri = uri.contains("?") ? uri : uri + "?";
+        }
+        return entity;
+    }
+
+    /**
+     * Returns objects changed after sync token, ordered by timestamp column and ID. Taxonomy terms don't have
+     * any timestamp, so only new terms (with higher TID) are returned. Users are synchronized by userSyncColumn,
+     * with default 'created' only new users are returned. Deleted objects are not detected.
+     * <p>
+     * Sync token is in format '{timestamp}:{ID}' of last returned object.
+     */
+    @Override
+    public void sync(ObjectClass objectClass, SyncToken token, final SyncResultsHandler handler, OperationOptions options) {
+        checkServicesProtocol("sync");
+        LOG.info("sync on {0}, token: {1}, options: {2}", objectClass, token, options);
+        final ListedEntity entity = getListedEntity(objectClass);
+        if (getConfiguration().isSnapshotSync(objectClass.getObjectClassValue())) {
+            snapshotSync(objectClass, token, entity, handler, options);
+            return;
+        }
+        final String column = entity.changedColumn == null ? entity.idColumn : entity.changedColumn;
+        long[] from = parseSyncToken(token);
+
+        String uri = entity.listUri + entity.processFieldsOptions(options, column);
+        final ObjectClass syncObjectClass = objectClass;
+        final ResultsHandler resultsHandler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                long id = Long.parseLong(connectorObject.getUid().getUidValue());
+                long timestamp = id;
+                if (!column.equals(entity.idColumn)) {
+                    Attribute changed = connectorObject.getAttributeByName(column);
+                    Object value = changed == null ? null : AttributeUtil.getSingleValue(changed);
+                    timestamp = value == null ? 0 : Long.parseLong(String.valueOf(value));
+                }
+
+                SyncDeltaBuilder deltaBuilder = new SyncDeltaBuilder();
+                deltaBuilder.setToken(new SyncToken(timestamp + SYNC_TOKEN_SEPARATOR + id));
+                deltaBuilder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                deltaBuilder.setObjectClass(syncObjectClass);
+                deltaBuilder.setObject(connectorObject);
+                return handler.handle(deltaBuilder.build());
+            }
+        };
+        final OperationOptions syncOptions = options;
+        try {
+            findChangedPages(uri, column, entity.idColumn, from, entity.newPageProcessor(resultsHandler, syncOptions, false));
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads records after timestamp and ID of the last synchronized record by keyset on (timestamp column, ID), every page
+     * starts after the last record of previous page. Records changed during sync move behind the read position, so they
+     * are not skipped as with offset paging. The same timestamp can have more records than one page, rest of them
+     * is read by ID before records with higher timestamp.
+     *
+     * @param column timestamp column, or ID column when records don't have any timestamp
+     * @param from   timestamp and ID of the last synchronized record, or null when sync starts from beginning
+     */
+    private void findChangedPages(String uri, String column, String idColumn, long[] from, PageHandler pageHandler) throws IOException {
+        String resource = getListedResource(uri);
+        boolean timestamped = !column.equals(idColumn);
+        boolean sameTimestamp = from != null && timestamped;
+        while (true) {
+            StringBuilder keyset = new StringBuilder(uri);
+            if (sameTimestamp) {
+                keyset.append("&parameters[").append(column).append("]=").append(from[0])
+                        .append("&parameters[").append(idColumn).append("]=").append(from[1])
+                        .append("&options[parameters_op][").append(idColumn).append("]=").append(URLEncoder.encode(">", "UTF-8"))
+                        .append("&options[orderby][").append(idColumn).append("]=asc");
+            } else {
+                if (from != null) {
+                    keyset.append("&parameters[").append(column).append("]=").append(from[0])
+                            .append("&options[parameters_op][").append(column).append("]=").append(URLEncoder.encode(">", "UTF-8"));
+                }
+                keyset.append("&options[orderby][").append(column).append("]=asc");
+                if (timestamped) {
+                    keyset.append("&options[orderby][").append(idColumn).append("]=asc");
+                }
+            }
+            ListedPage page = readPage(resource, keyset.toString(), 0, pageSizeTuner.getPageSize(resource), true, pageHandler);
+            if (pageHandler.endPage()) {
+                return;
+            }
+            if (!page.isLast()) {
+                from = new long[]{Long.parseLong(page.last.getString(column)), Long.parseLong(page.last.getString(idColumn))};
+                // the next record can have the same timestamp
+                sameTimestamp = timestamped;
+            } else if (sameTimestamp) {
+                // no more records with this timestamp
+                sameTimestamp = false;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lists all objects and returns only objects with other content hash as in stored snapshot, and deleted objects,
+     * which are in stored snapshot, but not listed now. Snapshot is replaced only when all changes was handled.
+     * <p>
+     * Sync token is in format 'snapshot:{generation}' of snapshot, which the changes were computed against. When the token
+     * is missing or stored snapshot has other generation (it was replaced by other sync with the same directory),
+     * sync starts again from full snapshot: all objects are returned, deleted objects are not known.
+     */
+    private void snapshotSync(final ObjectClass objectClass, SyncToken token, ListedEntity entity, final SyncResultsHandler handler, OperationOptions options) {
+        final SnapshotStore snapshot = new SnapshotStore(getConfiguration().getSnapshotSyncDirectory(), getConfiguration().getServiceAddress(), objectClass.getObjectClassValue());
+        Long tokenGeneration = parseSnapshotToken(token);
+        if (tokenGeneration == null || tokenGeneration != snapshot.getGeneration()) {
+            LOG.warn("sync token {0} don't match generation {1} of stored snapshot for {2}, returning all objects",
+                    token == null ? null : token.getValue(), snapshot.getGeneration(), objectClass);
+            snapshot.ignoreStored();
+        }
+        final SyncToken newToken = new SyncToken(SNAPSHOT_TOKEN_PREFIX + (snapshot.getGeneration() + 1));
+        final List<String> snapshotAttributes = getSnapshotAttributes(objectClass);
+        // requested attributes are returned, but only snapshot attributes are compared
+        Set<String> attributesToGet = new LinkedHashSet<>(snapshotAttributes);
+        if (options != null && options.getAttributesToGet() != null) {
+            attributesToGet.addAll(Arrays.asList(options.getAttributesToGet()));
+        } else {
+            attributesToGet.addAll(getReturnedByDefaultAttributes(objectClass));
+        }
+        OperationOptions syncOptions = withAttributesToGet(options, attributesToGet);
+        final boolean[] stopped = {false};
+        final int[] changes = {0};
+        final ResultsHandler resultsHandler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                long id = Long.parseLong(connectorObject.getUid().getUidValue());
+                if (!snapshot.put(id, SnapshotStore.hash(connectorObject, snapshotAttributes))) {
+                    // not changed
+                    return true;
+                }
+                changes[0]++;
+                SyncDeltaBuilder deltaBuilder = new SyncDeltaBuilder();
+                deltaBuilder.setToken(newToken);
+                deltaBuilder.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                deltaBuilder.setObjectClass(objectClass);
+                deltaBuilder.setObject(connectorObject);
+                stopped[0] = !handler.handle(deltaBuilder.build());
+                return !stopped[0];
+            }
+        };
+        try {
+            processAllPages(entity, entity.listUri + entity.processFieldsOptions(syncOptions) + "&options[orderby][" + entity.idColumn + "]=asc", resultsHandler, syncOptions, false);
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+        if (stopped[0]) {
+            LOG.ok("sync handler stopped, snapshot for {0} is not changed", objectClass);
+            return;
+        }
+
+        for (Long deletedId : snapshot.getDeleted()) {
+            changes[0]++;
+            SyncDeltaBuilder deltaBuilder = new SyncDeltaBuilder();
+            deltaBuilder.setToken(newToken);
+            deltaBuilder.setDeltaType(SyncDeltaType.DELETE);
+            deltaBuilder.setObjectClass(objectClass);
+            deltaBuilder.setUid(new Uid(String.valueOf(deletedId)));
+            if (!handler.handle(deltaBuilder.build())) {
+                LOG.ok("sync handler stopped, snapshot for {0} is not changed", objectClass);
+                return;
+            }
+        }
+        if (changes[0] == 0) {
+            // the same content, token of the caller stays valid
+            LOG.ok("no changes of {0} since snapshot generation {1}", objectClass, snapshot.getGeneration());
+            return;
+        }
+        long generation = snapshot.save();
+        if (!newToken.getValue().equals(SNAPSHOT_TOKEN_PREFIX + generation)) {
+            LOG.warn("snapshot for {0} was replaced by other sync, next sync returns all objects", objectClass);
+        }
+    }
+
+    /**
+     * @return generation from sync token in format 'snapshot:{generation}', or null if token is missing or has other format
+     */
+    private Long parseSnapshotToken(SyncToken token) {
+        if (token == null || !(token.getValue() instanceof String) || !((String) token.getValue()).startsWith(SNAPSHOT_TOKEN_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(((String) token.getValue()).substring(SNAPSHOT_TOKEN_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public SyncToken getLatestSyncToken(ObjectClass objectClass) {
+        checkServicesProtocol("sync");
+        ListedEntity entity = getListedEntity(objectClass);
+        if (getConfiguration().isSnapshotSync(objectClass.getObjectClassValue())) {
+            // store current state, next sync returns changes against it
+            final SnapshotStore snapshot = new SnapshotStore(getConfiguration().getSnapshotSyncDirectory(), getConfiguration().getServiceAddress(), objectClass.getObjectClassValue());
+            final List<String> snapshotAttributes = getSnapshotAttributes(objectClass);
+            OperationOptions options = withAttributesToGet(null, snapshotAttributes);
+            ResultsHandler resultsHandler = new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    snapshot.put(Long.parseLong(connectorObject.getUid().getUidValue()), SnapshotStore.hash(connectorObject, snapshotAttributes));
+                    return true;
+                }
+            };
+            try {
+                processAllPages(entity, entity.listUri + entity.processFieldsOptions(options) + "&options[orderby][" + entity.idColumn + "]=asc", resultsHandler, options, false);
+            } catch (IOException e) {
+                throw new ConnectorIOException(e.getMessage(), e);
+            }
+            return new SyncToken(SNAPSHOT_TOKEN_PREFIX + snapshot.save());
+        }
+        String column = entity.changedColumn == null ? entity.idColumn : entity.changedColumn;
+
+        StringBuilder uri = new StringBuilder(entity.listUri);
+        uri.append("&fields=").append(entity.idColumn);
+        if (!column.equals(entity.idColumn)) {
+            uri.append(",").append(column);
+        }
+        uri.append("&options[orderby][").append(column).append("]=desc");
+        if (!column.equals(entity.idColumn)) {
+            uri.append("&options[orderby][").append(entity.idColumn).append("]=desc");
+        }
+        uri.append(processPaging(0, 1));
+        try {
+            JSONArray entities = callRequest(new HttpGet(uri.toString()));
+            if (entities.length() == 0) {
+                return new SyncToken("0" + SYNC_TOKEN_SEPARATOR + "0");
+            }
+            JSONObject last = entities.getJSONObject(0);
+            SyncToken token = new SyncToken(last.getString(column) + SYNC_TOKEN_SEPARATOR + last.getString(entity.idColumn));
+            LOG.ok("latest sync token for {0}: {1}", objectClass, token.getValue());
+            return token;
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Attributes compared by snapshot sync, the same explicit set when snapshot is stored by getLatestSyncToken and when
+     * it is compared by sync, independent of attributes requested by sync. Last access and login of user change
+     * on every visit and transformed values are read by other requests, so they are not compared.
+     */
+    private List<String> getSnapshotAttributes(ObjectClass objectClass) {
+        List<String> attributes = new ArrayList<>();
+        attributes.add(Name.NAME);
+        for (AttributeInfo attributeInfo : getObjectClassInfo(objectClass).getAttributeInfo()) {
+            String name = attributeInfo.getName();
+            if (!Name.NAME.equals(name) && !OperationalAttributes.PASSWORD_NAME.equals(name) && !name.endsWith(TRANSFORMED_POSTFIX)
+                    && !(objectClass.is(ObjectClass.ACCOUNT_NAME) && (ATTR_ACCESS.equals(name) || ATTR_LOGIN.equals(name)))) {
+                attributes.add(name);
+            }
+        }
+        Collections.sort(attributes);
+        return attributes;
+    }
+
+    private List<String> getReturnedByDefaultAttributes(ObjectClass objectClass) {
+        List<String> attributes = new ArrayList<>();
+        for (AttributeInfo attributeInfo : getObjectClassInfo(objectClass).getAttributeInfo()) {
+            if (attributeInfo.isReturnedByDefault()) {
+                attributes.add(attributeInfo.getName());
+            }
+        }
+        return attributes;
+    }
+
+    private ObjectClassInfo getObjectClassInfo(ObjectClass objectClass) {
+        for (ObjectClassInfo objectClassInfo : schema().getObjectClassInfo()) {
+            if (objectClass.is(objectClassInfo.getType())) {
+                return objectClassInfo;
+            }
+        }
+        throw new UnsupportedOperationException("Unsupported object class " + objectClass);
+    }
+
+    private OperationOptions withAttributesToGet(OperationOptions options, Collection<String> attributesToGet) {
+        Map<String, Object> operationOptions = new HashMap<>();
+        if (options != null) {
+            operationOptions.putAll(options.getOptions());
+        }
+        operationOptions.put(OperationOptions.OP_ATTRIBUTES_TO_GET, attributesToGet.toArray(new String[attributesToGet.size()]));
+        return new OperationOptions(operationOptions);
+    }
+
+    /**
+     * @return timestamp and ID from sync token, or null when sync starts from beginning
+     */
+    private long[] parseSyncToken(SyncToken token) {
+        if (token == null || token.getValue() == null) {
+            return null;
+        }
+        String[] values = String.valueOf(token.getValue()).split(SYNC_TOKEN_SEPARATOR);
+        try {
+            return new long[]{Long.parseLong(values[0]), values.length > 1 ? Long.parseLong(values[1]) : 0};
+        } catch (NumberFormatException e) {
+            throw new InvalidAttributeValueException("Unsupported sync token " + token.getValue() + ", expected '{timestamp}:{ID}'", e);
+        }
+    }
+
     @Override
     public FilterTranslator<DrupalFilter> createFilterTranslator(ObjectClass objectClass, OperationOptions operationOptions) {
-        return new DrupalFilterTranslator();
+        ListedEntity entity = getListedEntity(objectClass);
+        return new DrupalFilterTranslator(entity.idColumn, entity.nameColumn, entity.columns);
     }
 
-    public void executeQuery(ObjectClass objectClass, DrupalFilter query, ResultsHandler handler, OperationOptions options) {
+    public void executeQuery(ObjectClass objectClass, DrupalFilter query, final ResultsHandler handler, final OperationOptions options) {
         try {
             LOG.info("executeQuery on {0}, query: {1}, options: {2}", objectClass, query, options);
+            if (jsonApi != null) {
+                executeJsonApiQuery(getListedEntity(objectClass), query, handler, options);
+                return;
+            }
+            if (query != null && (query.isMultiValued() || query.byParameters != null)) {
+                ListedEntity entity = getListedEntity(objectClass);
+                Map<String, String> parameters = query.byParameters == null ? Collections.<String, String>emptyMap() : query.byParameters;
+                if (query.byUids != null) {
+                    executeMultiValueQuery(entity, entity.idColumn, query.byUids, parameters, handler, options);
+                    return;
+                } else if (query.byNames != null) {
+                    executeMultiValueQuery(entity, entity.nameColumn, query.byNames, parameters, handler, options);
+                    return;
+                } else if (query.byEmailAddresses != null && UID.equals(entity.idColumn)) {
+                    executeMultiValueQuery(entity, ATTR_MAIL, query.byEmailAddresses, parameters, handler, options);
+                    return;
+                } else if (query.byParameters != null) {
+                    // all conditions in one list call
+                    String uri = entity.listUri + processParameters(parameters) + entity.processFieldsOptions(options, toArray(parameters.keySet()));
+                    processAllPages(entity, uri, handler, options, false);
+                    return;
+                }
+            }
             if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
+                String fields = processFieldsOptions(options, UID, ATTR_NAME, USER_COLUMNS);
                 //find by Uid (user Primary Key)
                 if (query != null && query.byUid != null) {
                     HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "/" + query.byUid);
                     JSONObject user = callRequest(request, true);
-                    ConnectorObject connectorObject = convertUserToConnectorObject(user);
+                    ConnectorObject connectorObject = convertUserToConnectorObject(user, options);
                     handler.handle(connectorObject);
                 }// find by name
                 else if (query != null && query.byName != null) {
-                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?parameters[" + ATTR_NAME + "]=" + URLEncoder.encode(query.byName, "UTF-8"));
+                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?parameters[" + ATTR_NAME + "]=" + URLEncoder.encode(query.byName, "UTF-8") + fields);
                     handleUsers(request, handler, options, false);
 
                     //find by emailAddress
                 } else if (query != null && query.byEmailAddress != null) {
-                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?parameters[" + ATTR_MAIL + "]=" + query.byEmailAddress);
+                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?parameters[" + ATTR_MAIL + "]=" + query.byEmailAddress + fields);
                     handleUsers(request, handler, options, false);
 
                 } else {
                     // find required page
-                    String pageing = processPageOptions(options);
-                    if (!StringUtil.isEmpty(pageing)) {
-                        HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?" + pageing);
-                        handleUsers(request, handler, options, false);
+                    if (isPaged(options)) {
+                        executePagedQuery(getListedEntity(objectClass), fields, handler, options);
                     }
                     // find all
                     else {
-                        int pageSize = getConfiguration().getPageSize();
-                        int page = 0;
-                        while (true) {
-                            pageing = processPaging(page, pageSize);
-                            HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + USER + "?" + pageing);
-                            boolean finish = handleUsers(request, handler, options, true);
-                            if (finish) {
-                                break;
-                            }
-                            page++;
-                        }
+                        processAllPages(getListedEntity(objectClass), getConfiguration().getServiceAddress() + USER + "?" + fields, handler, options, true);
                     }
                 }
 
             } else {
                 for (String machineName : getConfiguration().getTaxonomiesMetadatas().keySet()) {
                     if (objectClass.is(OC_TERM_Prefix + machineName)) {
+                        String fields = processFieldsOptions(options, TID, ATTR_NAME, TAXONOMY_COLUMNS, VID);
                         //find by Tid (taxonomy Primary Key)
                         if (query != null && query.byUid != null) {
                             HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + TAXONOMY_TERM + "/" + query.byUid);
@@ -987,28 +1696,16 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                         }// find by name
                         else if (query != null && query.byName != null) {
                             HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + TAXONOMY_TERM +
-                                    "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName) + "&parameters[" + ATTR_NAME + "]=" + URLEncoder.encode(query.byName, "UTF-8"));
+                                    "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName) + "&parameters[" + ATTR_NAME + "]=" + URLEncoder.encode(query.byName, "UTF-8") + fields);
                             handleTaxonomies(request, machineName, handler, options);
                         } else {
                             // find required page
-                            String pageing = processPageOptions(options);
-                            if (!StringUtil.isEmpty(pageing)) {
-                                HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + TAXONOMY_TERM + "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName) + pageing);
-                                handleTaxonomies(request, machineName, handler, options);
+                            if (isPaged(options)) {
+                                executePagedQuery(getListedEntity(objectClass), fields, handler, options);
                             }
                             // find all
                             else {
-                                int pageSize = getConfiguration().getPageSize();
-                                int page = 0;
-                                while (true) {
-                                    pageing = processPaging(page, pageSize);
-                                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + TAXONOMY_TERM + "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName) + pageing);
-                                    boolean finish = handleTaxonomies(request, machineName, handler, options);
-                                    if (finish) {
-                                        break;
-                                    }
-                                    page++;
-                                }
+                                processAllPages(getListedEntity(objectClass), getConfiguration().getServiceAddress() + TAXONOMY_TERM + "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName) + fields, handler, options, true);
                             }
 
                         }
@@ -1017,6 +1714,7 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                 }
                 for (String type : getConfiguration().getNodesMetadatas().keySet()) {
                     if (objectClass.is(OC_NODE_Prefix + type)) {
+                        String fields = processFieldsOptions(options, NID, ATTR_NODE_TITLE, NODE_COLUMNS, ATTR_NODE_TYPE);
                         //find by Nid (node Primary Key)
                         if (query != null && query.byUid != null) {
                             HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + NODE + "/" + query.byUid);
@@ -1030,29 +1728,17 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
                         }// find by name
                         else if (query != null && query.byName != null) {
                             HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + NODE +
-                                    "?parameters[" + ATTR_NODE_TYPE + "]=" + type + "&parameters[" + ATTR_NODE_TITLE + "]=" + URLEncoder.encode(query.byName, "UTF-8"));
+                                    "?parameters[" + ATTR_NODE_TYPE + "]=" + type + "&parameters[" + ATTR_NODE_TITLE + "]=" + URLEncoder.encode(query.byName, "UTF-8") + fields);
                             handleNodes(request, type, handler, options);
                             // find all
                         } else {
                             // find required page
-                            String pageing = processPageOptions(options);
-                            if (!StringUtil.isEmpty(pageing)) {
-                                HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + NODE + "?parameters[" + ATTR_NODE_TYPE + "]=" + type + pageing);
-                                handleNodes(request, type, handler, options);
+                            if (isPaged(options)) {
+                                executePagedQuery(getListedEntity(objectClass), fields, handler, options);
                             }
                             // find all
                             else {
-                                int pageSize = getConfiguration().getPageSize();
-                                int page = 0;
-                                while (true) {
-                                    pageing = processPaging(page, pageSize);
-                                    HttpGet request = new HttpGet(getConfiguration().getServiceAddress() + NODE + "?parameters[" + ATTR_NODE_TYPE + "]=" + type + pageing);
-                                    boolean finish = handleNodes(request, type, handler, options);
-                                    if (finish) {
-                                        break;
-                                    }
-                                    page++;
-                                }
+                                processAllPages(getListedEntity(objectClass), getConfiguration().getServiceAddress() + NODE + "?parameters[" + ATTR_NODE_TYPE + "]=" + type + fields, handler, options, true);
                             }
 
                         }
@@ -1067,125 +1753,1252 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         }
     }
 
-    private boolean handleUsers(HttpGet request, ResultsHandler handler, OperationOptions options, boolean findAll) throws IOException {
-        JSONArray users = callRequest(request);
-        LOG.ok("Number of users: {0}, pageResultsOffset: {1}, pageSize: {2} ", users.length(), options == null ? "null" : options.getPagedResultsOffset(), options == null ? "null" : options.getPageSize());
-
-        for (int i = 0; i < users.length(); i++) {
-            if (i % 10 == 0) {
-                LOG.ok("executeQuery: processing {0}. of {1} users", i, users.length());
-            }
-            // only basic fields
-            JSONObject user = users.getJSONObject(i);
-            if (this.getConfiguration().getDontReadUserDetailsWhenFindAllUsers() && findAll){
-                if (i % user.length() == 0) {
-                    LOG.ok("DontReadUserDetailsWhenFindAllUsers property is enabled and finnAll is catched - ignoring reading user details");
-                }
-            }
-            else if (getConfiguration().getUserMetadatas().size() > 1) {
-                // when using extended fields we need to get it each by one
-                HttpGet requestUserDetail = new HttpGet(getConfiguration().getServiceAddress() + USER + "/" + user.getString(UID));
-                user = callRequest(requestUserDetail, true);
+    /**
+     * Search over JSON:API, filter and paging are processed by Drupal, listed resources already contain all details
+     * and referenced names. Paged search continues by offset from pagedResultsOffset or pagedResultsCookie.
+     */
+    private void executeJsonApiQuery(final ListedEntity entity, final DrupalFilter query, final ResultsHandler handler, final OperationOptions options) throws IOException {
+        String uri = jsonApi.getListUri(entity.idColumn, entity.nameColumn, entity.typeName, entity.getFieldMetadatas(), query, options);
+        final int[] handled = {0};
+        final boolean[] stopped = {false};
+        final ResultsHandler countingHandler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                handled[0]++;
+                stopped[0] = !handler.handle(connectorObject);
+                return !stopped[0];
             }
+        };
+        PageProcessor pageHandler = entity.newPageProcessor(countingHandler, options, query == null);
+        pageHandler.detailsIncluded = true;
+        if (!isPaged(options)) {
+            jsonApi.findAllPages(uri, getConfiguration().getPageSize(), pageHandler);
+            return;
+        }
 
-            ConnectorObject connectorObject = convertUserToConnectorObject(user);
-            boolean finish = !handler.handle(connectorObject);
-            if (finish) {
-                return true;
+        int offset = 0;
+        if (options.getPagedResultsCookie() != null) {
+            try {
+                offset = Integer.parseInt(new String(Base64.decode(options.getPagedResultsCookie()), StandardCharsets.UTF_8));
+            } catch (NumberFormatException e) {
+                throw new InvalidAttributeValueException("Unsupported pagedResultsCookie " + options.getPagedResultsCookie(), e);
             }
+        } else if (options.getPagedResultsOffset() != null && options.getPagedResultsOffset() > 0) {
+            offset = options.getPagedResultsOffset() - 1;
         }
+        JSONObject document = jsonApi.readPage(uri, offset, options.getPageSize());
+        handlePage(pageHandler, jsonApi.getRecords(document));
 
-        // last page exceed
-        if (getConfiguration().getPageSize() > users.length()) {
-            return true;
+        if (handler instanceof SearchResultsHandler) {
+            boolean lastPage = jsonApi.getNextUri(document) == null && !stopped[0];
+            // the next page starts after all listed resources, also after the skipped anonymous user
+            int nextOffset = offset + jsonApi.getResourceCount(document, stopped[0] ? handled[0] : -1);
+            String cookie = lastPage ? null : Base64.encode(String.valueOf(nextOffset).getBytes(StandardCharsets.UTF_8));
+            LOG.ok("paged search returned {0} objects, cookie {1}", handled[0], cookie);
+            ((SearchResultsHandler) handler).handleResult(new SearchResult(cookie, lastPage ? 0 : -1));
         }
-        // need next page
-        return false;
     }
 
-    private ConnectorObject convertUserToConnectorObject(JSONObject user) throws IOException {
-        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
-        builder.setUid(new Uid(user.getString(UID)));
-        if (user.has(ATTR_NAME)) {
-            builder.setName(user.getString(ATTR_NAME));
-        }
-        getIfExists(user, ATTR_MAIL, builder);
-        getIfExists(user, ATTR_THEME, builder);
-        getIfExists(user, ATTR_SIGNATURE, builder);
-        getIfExists(user, ATTR_SIGNATURE_FORMAT, builder);
-        getIfExists(user, ATTR_CREATED, builder);
-        getIfExists(user, ATTR_ACCESS, builder);
-        getIfExists(user, ATTR_LOGIN, builder);
-        getIfExists(user, ATTR_TIMEZONE, builder);
-        getIfExists(user, ATTR_LANGUAGE, builder);
-
-        if (user.has(ATTR_STATUS)) {
-            boolean enable = STATUS_ENABLED.equals(user.getString(ATTR_STATUS)) ? true : false;
-            addAttr(builder, OperationalAttributes.ENABLE_NAME, enable);
+    /**
+     * Search OR of several values of one column. Values are sent in batches of filterBatchSize comma separated values
+     * in one list call, values which was not found in batch (or all, when Drupal can't filter on a set) are searched
+     * one by one with up to filterConcurrency requests in parallel.
+     */
+    private void executeMultiValueQuery(final ListedEntity entity, final String column, List<String> values, Map<String, String> parameters,
+                                        final ResultsHandler handler, final OperationOptions options) throws IOException {
+        String listUri = entity.listUri + processParameters(parameters);
+        Set<String> requiredColumns = new LinkedHashSet<>(parameters.keySet());
+        requiredColumns.add(column);
+        String fields = entity.processFieldsOptions(options, toArray(requiredColumns));
+
+        final Set<String> notFound = new LinkedHashSet<>();
+        for (String value : values) {
+            notFound.add(value.toLowerCase());
+        }
+        final boolean[] stopped = {false};
+        final boolean[] unexpected = {false};
+        ResultsHandler batchHandler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                String value = getFilteredValue(connectorObject, entity, column);
+                if (value == null || !notFound.remove(value.toLowerCase())) {
+                    // Drupal ignored set of values, don't read the rest of pages
+                    unexpected[0] = true;
+                    return false;
+                }
+                stopped[0] = !handler.handle(connectorObject);
+                return !stopped[0];
+            }
+        };
+
+        int batchSize = getConfiguration().getFilterBatchSize();
+        if (batchSize > 0 && !multiValueFilterUnsupported && values.size() > 1) {
+            for (int i = 0; i < values.size() && !stopped[0] && !unexpected[0]; i += batchSize) {
+                List<String> batch = values.subList(i, Math.min(i + batchSize, values.size()));
+                String uri = listUri + "&parameters[" + column + "]=" + URLEncoder.encode(toCsv(batch), "UTF-8") + fields;
+                processAllPages(entity, uri, batchHandler, options, false);
+            }
+            if (unexpected[0]) {
+                LOG.warn("Drupal don't filter on set of comma separated values, searching value by value from now");
+                multiValueFilterUnsupported = true;
+            }
         }
-
-        if (user.has(ATTR_ROLES)) {
-            JSONObject roles = user.getJSONObject(ATTR_ROLES);
-            String[] roleArray = roles.keySet().toArray(new String[roles.keySet().size()]);
-            builder.addAttribute(ATTR_ROLES, roleArray);
+        if (stopped[0] || notFound.isEmpty()) {
+            return;
         }
 
-        for (Map.Entry<String, String> entry : getConfiguration().getUserMetadatas().entrySet()) {
-            getUndFieldIfExists(user, entry.getKey(), builder, entry.getValue());
+        // value by value
+        List<String> uris = new ArrayList<>();
+        for (String value : values) {
+            if (notFound.contains(value.toLowerCase())) {
+                uris.add(listUri + "&parameters[" + column + "]=" + URLEncoder.encode(toCsv(Collections.singletonList(value)), "UTF-8") + fields);
+            }
         }
-
-        // read files (avatar) if is needed & exists
-        Map<String, byte[]> files = new HashMap<>();
-        for (String fileField : getConfiguration().getUser2files()) {
-            String fid = getFidValue(user, fileField);
-            if (fid != null) {
-                HttpGet requestUserDetail = new HttpGet(getConfiguration().getServiceAddress() + FILE + "/" + fid);
-                JSONObject file = callRequest(requestUserDetail, true);
-
-                builder.addAttribute(fileField + TRANSFORMED_POSTFIX, Base64.decode(file.getString(ATTR_FILE_FILE)));
+        int concurrency = Math.max(1, getConfiguration().getFilterConcurrency());
+        Deque<Future<JSONArray>> inFlight = new ArrayDeque<>(concurrency);
+        int next = 0;
+        try {
+            while (next < uris.size() || !inFlight.isEmpty()) {
+                while (inFlight.size() < concurrency && next < uris.size()) {
+                    inFlight.addLast(readPageAsync(uris.get(next)));
+                    next++;
+                }
+                final boolean[] stoppedByValue = {false};
+                handlePage(entity.newPageProcessor(new ResultsHandler() {
+                    @Override
+                    public boolean handle(ConnectorObject connectorObject) {
+                        stoppedByValue[0] = !handler.handle(connectorObject);
+                        return !stoppedByValue[0];
+                    }
+                }, options, false), waitFor(inFlight.removeFirst()));
+                if (stoppedByValue[0]) {
+                    return;
+                }
+            }
+        } finally {
+            // handler stopped or failed, don't wait for the rest
+            for (Future<JSONArray> future : inFlight) {
+                future.cancel(true);
             }
         }
+    }
 
-        ConnectorObject connectorObject = builder.build();
-        LOG.ok("convertUserToConnectorObject, user: {0}, \n\tconnectorObject: {1}",
+    /**
+     * @param findAll true, if all objects of object class are listed (not filtered), they are listed in findAllPartitions then
+     */
+    private void processAllPages(final ListedEntity entity, String uri, final ResultsHandler handler, final OperationOptions options, final boolean findAll) throws IOException {
+        if (findAll && entity.fullRecordUri != null) {
+            findAllFullRecords(entity, handler, options);
+            return;
+        }
+        if (findAll && getConfiguration().getFindAllPartitions() > 1) {
+            findAllPartitioned(entity, uri, handler, options);
+            return;
+        }
+        // keyset can't be used, when already filtered by ID
+        String keysetColumn = uri.contains("parameters[" + entity.idColumn + "]") ? null : entity.idColumn;
+        findAllPages(uri, keysetColumn, entity.newPageProcessor(handler, options, findAll));
+    }
+
+    /**
+     * Lists complete records from fullRecordEndpoints, so connector objects are build directly from pages without reading details.
+     */
+    private void findAllFullRecords(final ListedEntity entity, final ResultsHandler handler, final OperationOptions options) throws IOException {
+        LOG.ok("listing complete records from {0}", entity.fullRecordUri);
+        final PageProcessor processor = entity.newPageProcessor(handler, options, true);
+        processor.detailsIncluded = true;
+        findAllPages(entity.fullRecordUri, null, new PageHandler() {
+            @Override
+            public boolean handle(JSONObject record) throws IOException {
+                if (getConfiguration().getFullRecordFlatFields()) {
+                    remapFlatFields(record, entity.getFieldMetadatas());
+                }
+                return processor.handle(record);
+            }
+
+            @Override
+            public boolean endPage() throws IOException {
+                return processor.endPage();
+            }
+        });
+    }
+
+    /**
+     * Remap plain field values (or arrays of them) to Services structure: {"und":[{"value key":value}, ...]}.
+     */
+    private void remapFlatFields(JSONObject record, Map<String, String> fieldMetadatas) {
+        for (Map.Entry<String, String> field : fieldMetadatas.entrySet()) {
+            Object value = record.opt(field.getKey());
+            if (value == null || value instanceof JSONObject) {
+                continue;
+            }
+            JSONArray items = new JSONArray();
+            if (value instanceof JSONArray) {
+                JSONArray values = (JSONArray) value;
+                for (int i = 0; i < values.length(); i++) {
+                    items.put(new JSONObject().put(field.getValue(), values.get(i)));
+                }
+            } else if (!JSONObject.NULL.equals(value) && !"".equals(value)) {
+                items.put(new JSONObject().put(field.getValue(), value));
+            }
+            JSONObject und = new JSONObject();
+            und.put(UND, items);
+            record.put(field.getKey(), und);
+        }
+    }
+
+    /**
+     * Splits IDs between min. and max. ID to findAllPartitions ranges, which are listed concurrently, every range by pages
+     * 'ID BETWEEN next ID AND end of range'. Pages are converted and handed over to the handler in this thread,
+     * in order of ranges when findAllPartitionsOrdered is enabled, otherwise as they are received.
+     */
+    private void findAllPartitioned(ListedEntity entity, String uri, final ResultsHandler handler, OperationOptions options) throws IOException {
+        final String idColumn = entity.idColumn;
+        final String orderBy = "&options[orderby][" + idColumn + "]=asc";
+        final String rangeUri = uri.replace(orderBy, "");
+        final String resource = getListedResource(uri);
+
+        // min & max ID probes
+        JSONArray first = callRequest(new HttpGet(rangeUri + orderBy + processPaging(0, 1)));
+        if (first.length() == 0) {
+            return;
+        }
+        JSONArray last = callRequest(new HttpGet(rangeUri + "&options[orderby][" + idColumn + "]=desc" + processPaging(0, 1)));
+        long min = first.getJSONObject(0).getLong(idColumn);
+        long max = last.getJSONObject(0).getLong(idColumn);
+        int partitions = (int) Math.max(1, Math.min(getConfiguration().getFindAllPartitions(), max - min + 1));
+        boolean ordered = getConfiguration().getFindAllPartitionsOrdered();
+        LOG.ok("listing IDs {0} - {1} in {2} partitions, ordered: {3}", min, max, partitions, ordered);
+
+        // two pages in advance for every range
+        List<BlockingQueue<PartitionPage>> queues = new ArrayList<>(partitions);
+        BlockingQueue<PartitionPage> sharedQueue = new ArrayBlockingQueue<>(2 * partitions);
+        List<Future<?>> futures = new ArrayList<>(partitions);
+        try {
+            for (int i = 0; i < partitions; i++) {
+                final long from = min + (max - min + 1) * i / partitions;
+                final long to = min + (max - min + 1) * (i + 1) / partitions - 1;
+                final BlockingQueue<PartitionPage> queue = ordered ? new ArrayBlockingQueue<PartitionPage>(2) : sharedQueue;
+                queues.add(queue);
+                futures.add(getExecutor().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            long next = from;
+                            while (next <= to) {
+                                // read in advance, so records are buffered
+                                ListedPage page = readPage(resource, rangeUri + "&parameters[" + idColumn + "]=" + next + "," + to
+                                        + "&options[parameters_op][" + idColumn + "]=BETWEEN" + orderBy, 0, pageSizeTuner.getPageSize(resource), true, null);
+                                if (page.count > 0) {
+                                    queue.put(new PartitionPage(page.records, null));
+                                }
+                                if (page.isLast()) {
+                                    break;
+                                }
+                                next = page.last.getLong(idColumn) + 1;
+                            }
+                            queue.put(new PartitionPage(null, null));
+                        } catch (InterruptedException e) {
+                            // cancelled, nobody is waiting for the rest
+                        } catch (Exception e) {
+                            queue.put(new PartitionPage(null, e));
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            final boolean[] stopped = {false};
+            ResultsHandler stopAwareHandler = new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    stopped[0] = !handler.handle(connectorObject);
+                    return !stopped[0];
+                }
+            };
+            PageProcessor processor = entity.newPageProcessor(stopAwareHandler, options, true);
+            int finished = 0;
+            while (finished < partitions) {
+                PartitionPage partitionPage;
+                try {
+                    partitionPage = queues.get(ordered ? finished : 0).take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectorException("Interrupted while waiting for partition page: " + e.getMessage(), e);
+                }
+                if (partitionPage.error instanceof IOException) {
+                    throw (IOException) partitionPage.error;
+                } else if (partitionPage.error instanceof RuntimeException) {
+                    throw (RuntimeException) partitionPage.error;
+                } else if (partitionPage.error != null) {
+                    throw new ConnectorException(partitionPage.error.getMessage(), partitionPage.error);
+                }
+                if (partitionPage.page == null) {
+                    // end of range
+                    finished++;
+                    continue;
+                }
+                handlePage(processor, partitionPage.page);
+                if (stopped[0]) {
+                    return;
+                }
+            }
+        } finally {
+            // handler stopped or failed, don't wait for the rest
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Listed page of one partition, or end of partition when page is null.
+     */
+    private static class PartitionPage {
+        final JSONArray page;
+        final Exception error;
+
+        PartitionPage(JSONArray page, Exception error) {
+            this.page = page;
+            this.error = error;
+        }
+    }
+
+    private String getFilteredValue(ConnectorObject connectorObject, ListedEntity entity, String column) {
+        if (entity.idColumn.equals(column)) {
+            return connectorObject.getUid().getUidValue();
+        } else if (entity.nameColumn.equals(column)) {
+            return connectorObject.getName().getNameValue();
+        }
+        Attribute attribute = connectorObject.getAttributeByName(column);
+        return attribute == null ? null : AttributeUtil.getAsStringValue(attribute);
+    }
+
+    /**
+     * @return Services list parameters for conditions on columns
+     */
+    private String processParameters(Map<String, String> parameters) throws UnsupportedEncodingException {
+        StringBuilder queryBuilder = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            queryBuilder.append("&parameters[").append(parameter.getKey()).append("]=")
+                    .append(URLEncoder.encode(toCsv(Collections.singletonList(parameter.getValue())), "UTF-8"));
+        }
+        return queryBuilder.toString();
+    }
+
+    private String[] toArray(Collection<String> values) {
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Services splits parameter value as CSV line, values with comma or quote need to be quoted.
+     */
+    private String toCsv(List<String> values) {
+        StringBuilder csv = new StringBuilder();
+        for (String value : values) {
+            if (csv.length() > 0) {
+                csv.append(",");
+            }
+            if (value.contains(",") || value.contains("\"")) {
+                csv.append("\"").append(value.replace("\"", "\"\"")).append("\"");
+            } else {
+                csv.append(value);
+            }
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Returns one page of pageSize objects ordered by ID, starting at pagedResultsOffset (1-based) or at opaque
+     * pagedResultsCookie returned in SearchResult of the previous page, so search can continue also after failure.
+     * Offset is mapped to Drupal page and slice of it, with keysetPaging the cookie holds last returned ID.
+     * <p>
+     * Remaining count is 0 after the last page, counted by listing IDs only when countRemainingPagedResults is enabled,
+     * otherwise -1 (unknown). All objects are counted only once per search, the count is kept in the cookie
+     * for next pages, so objects created or deleted during paged search are not counted.
+     * <p>
+     * Cookie is in format '{index}:{last ID}:{count of all objects}', last ID and count are empty when not known.
+     */
+    private void executePagedQuery(final ListedEntity entity, String fields, final ResultsHandler handler, final OperationOptions options) throws IOException {
+        final int pageSize = options.getPageSize();
+        String orderBy = "&options[orderby][" + entity.idColumn + "]=asc";
+
+        // cursor
+        int index = 0;
+        String afterId = null;
+        int totalCount = -1;
+        if (options.getPagedResultsCookie() != null) {
+            String cursor = new String(Base64.decode(options.getPagedResultsCookie()), StandardCharsets.UTF_8);
+            String[] parts = cursor.split(SYNC_TOKEN_SEPARATOR, -1);
+            try {
+                index = Integer.parseInt(parts[0]);
+                afterId = parts.length > 1 && !parts[1].isEmpty() ? String.valueOf(Long.parseLong(parts[1])) : null;
+                totalCount = parts.length > 2 && !parts[2].isEmpty() ? Integer.parseInt(parts[2]) : -1;
+            } catch (NumberFormatException e) {
+                throw new InvalidAttributeValueException("Unsupported pagedResultsCookie " + options.getPagedResultsCookie(), e);
+            }
+        } else if (options.getPagedResultsOffset() != null && options.getPagedResultsOffset() > 0) {
+            index = options.getPagedResultsOffset() - 1;
+        }
+        boolean keyset = getConfiguration().getKeysetPaging() && (afterId != null || index == 0);
+        LOG.ok("paged search from index {0}, after ID {1}, pageSize {2}, keyset {3}", index, afterId, pageSize, keyset);
+
+        final int[] handled = {0};
+        final String[] lastId = {afterId};
+        final boolean[] stopped = {false};
+        ResultsHandler pageHandler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                handled[0]++;
+                lastId[0] = connectorObject.getUid().getUidValue();
+                stopped[0] = !handler.handle(connectorObject);
+                return !stopped[0];
+            }
+        };
+
+        final PageProcessor processor = entity.newPageProcessor(pageHandler, options, false);
+        boolean lastPage;
+        if (keyset) {
+            String keysetQuery = afterId == null ? "" : "&parameters[" + entity.idColumn + "]=" + afterId
+                    + "&options[parameters_op][" + entity.idColumn + "]=" + URLEncoder.encode(">", "UTF-8");
+            int count = callRequest(new HttpGet(entity.listUri + fields + keysetQuery + orderBy + processPaging(0, pageSize)), processor);
+            lastPage = count < pageSize;
+            processor.endPage();
+        } else {
+            int drupalPage = index / pageSize;
+            int skip = index % pageSize;
+            while (true) {
+                // records before index are skipped, parsing stops at the first record after this search page
+                final int from = skip;
+                final int to = skip + pageSize - handled[0];
+                final boolean[] moreRecords = {false};
+                int count = callRequest(new HttpGet(entity.listUri + fields + orderBy + processPaging(drupalPage, pageSize)), new JsonRecordHandler() {
+                    private int position = 0;
+
+                    @Override
+                    public boolean handle(JSONObject record) throws IOException {
+                        position++;
+                        if (position <= from) {
+                            return true;
+                        }
+                        if (position > to) {
+                            moreRecords[0] = true;
+                            return false;
+                        }
+                        return processor.handle(record);
+                    }
+                });
+                processor.endPage();
+                lastPage = count < pageSize && !moreRecords[0];
+                if (lastPage || moreRecords[0] || stopped[0] || handled[0] >= pageSize) {
+                    // rest of this page is not returned
+                    break;
+                }
+                skip = 0;
+                drupalPage++;
+            }
+        }
+
+        if (!(handler instanceof SearchResultsHandler)) {
+            return;
+        }
+        int nextIndex = index + handled[0];
+        String cookie = null;
+        int remaining = -1;
+        if (lastPage && !stopped[0]) {
+            remaining = 0;
+        } else {
+            if (getConfiguration().getCountRemainingPagedResults()) {
+                if (totalCount < 0) {
+                    // the first page of search
+                    totalCount = countAll(entity);
+                }
+                remaining = Math.max(0, totalCount - nextIndex);
+            }
+            String cursor = nextIndex + SYNC_TOKEN_SEPARATOR
+                    + (getConfiguration().getKeysetPaging() && lastId[0] != null ? lastId[0] : "") + SYNC_TOKEN_SEPARATOR
+                    + (totalCount < 0 ? "" : String.valueOf(totalCount));
+            cookie = Base64.encode(cursor.getBytes(StandardCharsets.UTF_8));
+        }
+        LOG.ok("paged search returned {0} objects, cookie {1}, remaining {2}", handled[0], cookie, remaining);
+        ((SearchResultsHandler) handler).handleResult(new SearchResult(cookie, remaining));
+    }
+
+    /**
+     * Count objects by listing only their IDs.
+     */
+    private int countAll(ListedEntity entity) throws IOException {
+        final int[] count = {0};
+        findAllPages(entity.listUri + "&fields=" + entity.idColumn, entity.idColumn, new PageHandler() {
+            @Override
+            public boolean handle(JSONObject record) {
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean endPage() {
+                return false;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Reads all pages one by one, with pageReadAhead pages requested in advance. Page size is tuned for every listed resource
+     * when adaptivePageSize is enabled, offset of the next page stays aligned to the page size.
+     *
+     * @param uri          request URI without paging
+     * @param keysetColumn ID column used for keyset paging, when it is enabled, or null when records are ordered by other column
+     */
+    void findAllPages(String uri, String keysetColumn, PageHandler pageHandler) throws IOException {
+        if (keysetColumn != null && getConfiguration().getKeysetPaging()) {
+            findAllPagesByKeyset(uri, keysetColumn, pageHandler);
+            return;
+        }
+        String resource = getListedResource(uri);
+        int readAhead = getConfiguration().getPageReadAhead();
+        if (readAhead <= 0) {
+            findPagesFrom(resource, uri, 0, pageSizeTuner.getPageSize(resource), pageHandler);
+            return;
+        }
+
+        // the same page size for all pages requested in advance
+        final int pageSize = pageSizeTuner.getPageSize(resource);
+        Deque<Future<ListedPage>> inFlight = new ArrayDeque<>(readAhead + 1);
+        int nextPage = 0;
+        long offset = 0;
+        boolean lastPageReceived = false;
+        try {
+            while (true) {
+                // don't ask for more, when we already know where is the end
+                for (Future<ListedPage> future : inFlight) {
+                    if (future.isDone() && !future.isCancelled() && waitFor(future).isLast()) {
+                        lastPageReceived = true;
+                    }
+                }
+                while (!lastPageReceived && inFlight.size() <= readAhead) {
+                    inFlight.addLast(readPageAsync(resource, uri, (long) nextPage * pageSize, pageSize));
+                    nextPage++;
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                ListedPage page = waitFor(inFlight.removeFirst());
+                page.handOver(pageHandler);
+                boolean finish = pageHandler.endPage();
+                if (finish || page.isLast()) {
+                    break;
+                }
+                offset += page.pageSize;
+                if (page.pageSize != pageSize) {
+                    // page size is limited by server, pages requested in advance are at wrong offsets
+                    for (Future<ListedPage> future : inFlight) {
+                        future.cancel(true);
+                    }
+                    inFlight.clear();
+                    findPagesFrom(resource, uri, offset, page.pageSize, pageHandler);
+                    break;
+                }
+            }
+        } finally {
+            // requested pages after the last one or after the handler has stopped
+            for (Future<ListedPage> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads pages one by one from the offset, page size is changed to the tuned one, when offset is aligned to it.
+     */
+    private void findPagesFrom(String resource, String uri, long offset, int pageSize, PageHandler pageHandler) throws IOException {
+        while (true) {
+            ListedPage page = readPage(resource, uri, offset, pageSize, true, pageHandler);
+            boolean finish = pageHandler.endPage();
+            if (finish || page.isLast()) {
+                break;
+            }
+            offset += page.pageSize;
+            pageSize = page.pageSize;
+            int tunedPageSize = pageSizeTuner.getPageSize(resource);
+            if (offset % tunedPageSize == 0) {
+                pageSize = tunedPageSize;
+            }
+        }
+    }
+
+    /**
+     * Reads all pages ordered by ID, next page is requested by 'ID > last ID' condition instead of offset,
+     * so database don't need to skip all previous rows. Next page depends on the previous one, so pageReadAhead is not used.
+     */
+    private void findAllPagesByKeyset(String uri, String idColumn, PageHandler pageHandler) throws IOException {
+        String resource = getListedResource(uri);
+        String orderBy = "&options[orderby][" + idColumn + "]=asc";
+        if (!uri.contains(orderBy)) {
+            uri += orderBy;
+        }
+        String lastId = null;
+        while (true) {
+            String keyset = "";
+            if (lastId != null) {
+                keyset = "&parameters[" + idColumn + "]=" + lastId + "&options[parameters_op][" + idColumn + "]=" + URLEncoder.encode(">", "UTF-8");
+            }
+            ListedPage page = readPage(resource, uri + keyset, 0, pageSizeTuner.getPageSize(resource), true, pageHandler);
+            boolean finish = pageHandler.endPage();
+            if (finish || page.isLast()) {
+                break;
+            }
+            lastId = page.last.getString(idColumn);
+        }
+    }
+
+    /**
+     * @return listed resource (users, terms of vocabulary or nodes of type) used as key for tuned page size
+     */
+    private String getListedResource(String uri) {
+        int index = uri.indexOf('&');
+        return index < 0 ? uri : uri.substring(0, index);
+    }
+
+    /**
+     * Reads one page and records his response time to tune page size. When request fails by timeout or server error,
+     * smaller page from the same offset is read again, if it is allowed, page size can be smaller and no record
+     * was handed over yet.
+     * <p>
+     * Records are handed over to the record handler as they are parsed from the response. Only page at other than the first
+     * offset, which is read with not verified page size, is buffered, until it is checked, that the server didn't limit it.
+     *
+     * @param offset        count of records before this page, must be multiple of pageSize
+     * @param recordHandler handler of records of this page, or null when records are buffered in returned page
+     */
+    private ListedPage readPage(String resource, String uri, long offset, int pageSize, boolean retrySmaller, JsonRecordHandler recordHandler) throws IOException {
+        while (true) {
+            boolean verified = pageSizeTuner.isVerified(resource, pageSize);
+            boolean stream = recordHandler != null && (offset == 0 || verified);
+            ListedPage page = new ListedPage(pageSize, stream ? recordHandler : null);
+            long start = System.currentTimeMillis();
+            try {
+                HttpGet request = new HttpGet(uri + processPaging((int) (offset / pageSize), pageSize));
+                callRequest(request, page);
+                if (page.count > 0 && page.count < pageSize && !page.stopped && !verified) {
+                    ListedPage limitedPage = readLimitedPage(resource, uri, offset, page, recordHandler);
+                    if (limitedPage != null) {
+                        return limitedPage;
+                    }
+                }
+                if (!page.stopped) {
+                    pageSizeTuner.success(resource, pageSize, page.count, System.currentTimeMillis() - start);
+                }
+                if (!stream && recordHandler != null) {
+                    page.handOver(recordHandler);
+                }
+                return page;
+            } catch (IOException | ConnectorException e) {
+                if (!isOverloaded(e)) {
+                    throw e;
+                }
+                int smallerPageSize = pageSizeTuner.failure(resource, pageSize, e);
+                if (!retrySmaller || (stream && page.count > 0) || smallerPageSize >= pageSize || offset % smallerPageSize != 0) {
+                    throw e;
+                }
+                LOG.warn("reading page of {0} failed after {1} ms: {2}, trying again with page size {3}", resource, System.currentTimeMillis() - start, e.getMessage(), smallerPageSize);
+                pageSize = smallerPageSize;
+            }
+        }
+    }
+
+    /**
+     * Services limits page size by services_{resource}_index_page_size variable and computes offset from the limited
+     * page size, so short page read with not verified page size doesn't have to be the last one and, when it is not
+     * the first page, it can start at other offset. Checks the record at requested offset, or the record after the
+     * returned ones on the first page, by one record pages, which are never limited.
+     *
+     * @param page short page, records of the first page are already handed over, records of other page are buffered
+     * @return page from requested offset read with page size allowed by server, or null, when short page is really the last one
+     */
+    private ListedPage readLimitedPage(String resource, String uri, long offset, ListedPage page, JsonRecordHandler recordHandler) throws IOException {
+        int count = page.count;
+        if (offset == 0) {
+            JSONArray next = callRequest(new HttpGet(uri + processPaging(count, 1)));
+            if (next.length() == 0) {
+                return null;
+            }
+            // records from the beginning are right, page is full in limited size
+            LOG.warn("page size {0} of {1} is limited by server to {2}", page.pageSize, resource, count);
+            pageSizeTuner.limit(resource, count);
+            page.pageSize = count;
+            if (recordHandler != null && page.records != null) {
+                page.handOver(recordHandler);
+            }
+            return page;
+        }
+
+        JSONArray first = callRequest(new HttpGet(uri + processPaging((int) offset, 1)));
+        if (first.length() > 0 && first.getJSONObject(0).toString().equals(page.records.getJSONObject(0).toString())) {
+            // records start at requested offset, server didn't limit them
+            return null;
+        }
+        // limit is at least count of returned records
+        LOG.warn("page size {0} of {1} is limited by server, using at most {2}", page.pageSize, resource, count);
+        pageSizeTuner.limit(resource, count);
+        int limitedPageSize = (int) gcd(offset, count);
+        if (first.length() == 0) {
+            return new ListedPage(limitedPageSize, null);
+        }
+        return readPage(resource, uri, offset, limitedPageSize, true, recordHandler);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+    /**
+     * @return true, if request failed by timeout or server error, which can be caused by too large page
+     */
+    private boolean isOverloaded(Exception e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof OperationTimeoutException || t instanceof SocketTimeoutException
+                    || (t.getMessage() != null && t.getMessage().contains("HTTP error 5"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Future<ListedPage> readPageAsync(final String resource, final String uri, final long offset, final int pageSize) {
+        return getExecutor().submit(new Callable<ListedPage>() {
+            @Override
+            public ListedPage call() throws Exception {
+                return readPage(resource, uri, offset, pageSize, false, null);
+            }
+        });
+    }
+
+    /**
+     * Count of listed records, the last of them and page size, which was used to read them. Records are passed
+     * to the record handler while they are parsed, or buffered, when there is no record handler.
+     */
+    private static class ListedPage implements JsonRecordHandler {
+        int pageSize;
+        private final JsonRecordHandler recordHandler;
+        /**
+         * buffered records, null when they are passed to the record handler
+         */
+        final JSONArray records;
+        int count = 0;
+        JSONObject last;
+        /**
+         * record handler don't need more records
+         */
+        boolean stopped = false;
+
+        ListedPage(int pageSize, JsonRecordHandler recordHandler) {
+            this.pageSize = pageSize;
+            this.recordHandler = recordHandler;
+            this.records = recordHandler == null ? new JSONArray() : null;
+        }
+
+        @Override
+        public boolean handle(JSONObject record) throws IOException {
+            count++;
+            last = record;
+            if (recordHandler == null) {
+                records.put(record);
+                return true;
+            }
+            stopped = !recordHandler.handle(record);
+            return !stopped;
+        }
+
+        /**
+         * Pass buffered records to the record handler.
+         */
+        void handOver(JsonRecordHandler recordHandler) throws IOException {
+            for (int i = 0; i < records.length(); i++) {
+                if (!recordHandler.handle(records.getJSONObject(i))) {
+                    stopped = true;
+                    break;
+                }
+            }
+        }
+
+        boolean isLast() {
+            return count < pageSize;
+        }
+    }
+
+    private Future<JSONArray> readPageAsync(final String uri) {
+        return getExecutor().submit(new Callable<JSONArray>() {
+            @Override
+            public JSONArray call() throws Exception {
+                HttpGet request = new HttpGet(uri);
+                return callRequest(request);
+            }
+        });
+    }
+
+    /**
+     * Process listed pages, records of every page are handed over one by one as they are parsed from the response.
+     */
+    interface PageHandler extends JsonRecordHandler {
+        /**
+         * Called after all records of the page were handed over, or after the handler didn't need more of them.
+         *
+         * @return true, if no more pages are needed
+         */
+        boolean endPage() throws IOException;
+    }
+
+    /**
+     * Hand over records of page, which was read in advance or returned in other document.
+     *
+     * @return true, if no more pages are needed
+     */
+    static boolean handlePage(PageHandler pageHandler, JSONArray page) throws IOException {
+        for (int i = 0; i < page.length(); i++) {
+            if (!pageHandler.handle(page.getJSONObject(i))) {
+                break;
+            }
+        }
+        return pageHandler.endPage();
+    }
+
+    private boolean handleUsers(HttpGet request, ResultsHandler handler, OperationOptions options, boolean findAll) throws IOException {
+        return new UserPageProcessor(handler, options, findAll).process(request);
+    }
+
+    /**
+     * Converts listed records to connector objects and hands them over to the results handler,
+     * one by one as they are parsed from the response, page after page.
+     */
+    private abstract class PageProcessor implements PageHandler {
+
+        private final String entityName;
+        private final ResultsHandler handler;
+        protected final OperationOptions options;
+        private final List<String> parallelDetailUris = new ArrayList<>();
+        private final List<JSONObject> batchedDetailRecords = new ArrayList<>();
+        private int count = 0;
+        private boolean finish = false;
+        /**
+         * listed records are complete, details are not read
+         */
+        boolean detailsIncluded = false;
+
+        PageProcessor(String entityName, ResultsHandler handler, OperationOptions options) {
+            this.entityName = entityName;
+            this.handler = handler;
+            this.options = options;
+        }
+
+        /**
+         * @return URI of record details, or null when basic fields from list are enough
+         */
+        abstract String getDetailUri(JSONObject record);
+
+        abstract ConnectorObject convert(JSONObject record) throws IOException;
+
+        boolean readDetailsInParallel() {
+            return false;
+        }
+
+        boolean readDetailsInBatch() {
+            return false;
+        }
+
+        /**
+         * @return list URI returning details of all records by one call, when readDetailsInBatch
+         */
+        String getDetailsBatchUri(List<JSONObject> records) {
+            return null;
+        }
+
+        /**
+         * @return true, if record contains all details, which are read
+         */
+        boolean hasDetails(JSONObject record) {
+            return true;
+        }
+
+        String getId(JSONObject record) {
+            return null;
+        }
+
+        @Override
+        public boolean handle(JSONObject record) throws IOException {
+            if (count % 10 == 0) {
+                LOG.ok("executeQuery: processing {0}. of {1}", count, entityName);
+            }
+            count++;
+
+            String detailUri = detailsIncluded ? null : getDetailUri(record);
+            if (detailUri != null && readDetailsInBatch() && !batchedDetailsUnsupported.contains(entityName)) {
+                batchedDetailRecords.add(record);
+                return true;
+            }
+            if (detailUri != null && readDetailsInParallel()) {
+                parallelDetailUris.add(detailUri);
+                return true;
+            }
+            if (detailUri != null) {
+                HttpGet requestDetail = new HttpGet(detailUri);
+                record = callRequest(requestDetail, true);
+            }
+
+            finish = !handler.handle(convert(record));
+            return !finish;
+        }
+
+        /**
+         * @return true, if handler don't need more results
+         */
+        boolean process(HttpGet request) throws IOException {
+            callRequest(request, this);
+            return endPage();
+        }
+
+        /**
+         * Reads details of records collected on the page.
+         *
+         * @return true, if handler don't need more results
+         */
+        @Override
+        public boolean endPage() throws IOException {
+            if (!finish && !batchedDetailRecords.isEmpty()) {
+                finish = handleDetailsInBatch(batchedDetailRecords, this, handler);
+            }
+            if (!finish && !parallelDetailUris.isEmpty()) {
+                finish = handleDetailsInParallel(parallelDetailUris, this, handler);
+            }
+            batchedDetailRecords.clear();
+            parallelDetailUris.clear();
+            LOG.ok("Number of {0}: {1}, pageResultsOffset: {2}, pageSize: {3} ", entityName, count, options == null ? "null" : options.getPagedResultsOffset(), options == null ? "null" : options.getPageSize());
+            return finish;
+        }
+    }
+
+    private class UserPageProcessor extends PageProcessor {
+
+        private boolean readDetails;
+
+        UserPageProcessor(ResultsHandler handler, OperationOptions options, boolean findAll) {
+            super("users", handler, options);
+            readDetails = getConfiguration().getUserMetadatas().size() > 1;
+            if (getConfiguration().getDontReadUserDetailsWhenFindAllUsers() && findAll) {
+                LOG.ok("DontReadUserDetailsWhenFindAllUsers property is enabled and finnAll is catched - ignoring reading user details");
+                readDetails = false;
+            }
+            if (readDetails && !isAnyDetailToGet(options, getConfiguration().getUserMetadatas().keySet(), ATTR_ROLES)) {
+                LOG.ok("only listed columns are requested in attributesToGet - ignoring reading user details");
+                readDetails = false;
+            }
+        }
+
+        @Override
+        String getDetailUri(JSONObject user) {
+            if (readDetails) {
+                // when using extended fields we need to get it each by one
+                return getConfiguration().getServiceAddress() + USER + "/" + user.getString(UID);
+            }
+            return null;
+        }
+
+        @Override
+        boolean readDetailsInParallel() {
+            return getConfiguration().getUserDetailsConcurrency() > 1;
+        }
+
+        @Override
+        ConnectorObject convert(JSONObject user) throws IOException {
+            return convertUserToConnectorObject(user, options);
+        }
+    }
+
+    /**
+     * Reads details with up to userDetailsConcurrency requests in flight, but hands them over
+     * to the handler in the same order as they are listed on the page.
+     *
+     * @return true, if handler don't need more results
+     */
+    private boolean handleDetailsInParallel(List<String> detailUris, PageProcessor processor, ResultsHandler handler) throws IOException {
+        int concurrency = getConfiguration().getUserDetailsConcurrency();
+        Deque<Future<JSONObject>> inFlight = new ArrayDeque<>(concurrency);
+        int next = 0;
+        int processed = 0;
+        try {
+            while (processed < detailUris.size()) {
+                while (inFlight.size() < concurrency && next < detailUris.size()) {
+                    inFlight.addLast(readDetailAsync(detailUris.get(next)));
+                    next++;
+                }
+                if (processed % 10 == 0) {
+                    LOG.ok("executeQuery: processing {0}. of {1} details, {2} requests in flight", processed, detailUris.size(), inFlight.size());
+                }
+                JSONObject record = waitFor(inFlight.removeFirst());
+                processed++;
+
+                ConnectorObject connectorObject = processor.convert(record);
+                boolean finish = !handler.handle(connectorObject);
+                if (finish) {
+                    return true;
+                }
+            }
+        } finally {
+            // handler stopped or failed, don't wait for the rest
+            for (Future<JSONObject> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads details of all records on page by list call filtered by their IDs, and hands them over to the handler
+     * in the same order as they are listed. Details missing in the response (over Services page limit) are asked
+     * again by IDs of the rest, until a call don't return any of them, then they are read one by one. When Drupal
+     * rejects the batched call, don't return custom fields in it or don't return any of requested records,
+     * details of this entity are read one by one from now, without the batched call.
+     *
+     * @return true, if handler don't need more results
+     */
+    private boolean handleDetailsInBatch(List<JSONObject> records, PageProcessor processor, ResultsHandler handler) throws IOException {
+        List<String> detailUris = new ArrayList<>(records.size());
+        for (JSONObject record : records) {
+            detailUris.add(processor.getDetailUri(record));
+        }
+
+        Map<String, JSONObject> detailsById = new HashMap<>();
+        List<JSONObject> missing = records;
+        while (!missing.isEmpty() && !batchedDetailsUnsupported.contains(processor.entityName)) {
+            JSONArray details;
+            try {
+                details = callRequest(new HttpGet(processor.getDetailsBatchUri(missing) + processPaging(0, missing.size())));
+            } catch (ConnectorException | JSONException e) {
+                LOG.warn(e, "reading details of {0} by one list call failed, reading details one by one from now: {1}", processor.entityName, e.getMessage());
+                batchedDetailsUnsupported.add(processor.entityName);
+                break;
+            }
+            Set<String> missingIds = new HashSet<>();
+            for (JSONObject record : missing) {
+                missingIds.add(processor.getId(record));
+            }
+            int found = 0;
+            for (int i = 0; i < details.length() && found >= 0; i++) {
+                JSONObject detail = details.getJSONObject(i);
+                if (!processor.hasDetails(detail)) {
+                    LOG.warn("list call of {0} don't return custom fields, reading details one by one from now", processor.entityName);
+                    batchedDetailsUnsupported.add(processor.entityName);
+                    found = -1;
+                } else if (missingIds.remove(processor.getId(detail))) {
+                    detailsById.put(processor.getId(detail), detail);
+                    found++;
+                }
+            }
+            if (found == 0 && detailsById.isEmpty()) {
+                LOG.warn("list call of {0} don't return records by IDs, reading details one by one from now", processor.entityName);
+                batchedDetailsUnsupported.add(processor.entityName);
+            }
+            if (found <= 0) {
+                break;
+            }
+            List<JSONObject> rest = new ArrayList<>();
+            for (JSONObject record : missing) {
+                if (missingIds.contains(processor.getId(record))) {
+                    rest.add(record);
+                }
+            }
+            missing = rest;
+        }
+        if (detailsById.isEmpty() && processor.readDetailsInParallel()) {
+            return handleDetailsInParallel(detailUris, processor, handler);
+        }
+        for (int i = 0; i < records.size(); i++) {
+            JSONObject detail = detailsById.get(processor.getId(records.get(i)));
+            if (detail == null) {
+                detail = callRequest(new HttpGet(detailUris.get(i)), true);
+            }
+            if (!handler.handle(processor.convert(detail))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return query parameters filtering by IDs of records and asking for listed columns and all configured fields
+     */
+    private String getDetailsBatchQuery(String idColumn, List<JSONObject> records, List<String> columns, Set<String> fields, String... otherFields) {
+        List<String> ids = new ArrayList<>(records.size());
+        for (JSONObject record : records) {
+            ids.add(record.getString(idColumn));
+        }
+        Set<String> allFields = new LinkedHashSet<>(columns);
+        allFields.addAll(fields);
+        allFields.addAll(Arrays.asList(otherFields));
+        StringBuilder query = new StringBuilder();
+        query.append("&parameters[").append(idColumn).append("]=").append(toCsv(ids));
+        query.append("&fields=");
+        Iterator<String> iterator = allFields.iterator();
+        while (iterator.hasNext()) {
+            query.append(iterator.next());
+            if (iterator.hasNext()) {
+                query.append(",");
+            }
+        }
+        return query.toString();
+    }
+
+    private boolean hasAll(JSONObject record, Set<String> fields) {
+        for (String field : fields) {
+            if (!record.has(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ConnectorObject convertUserToConnectorObject(JSONObject user, OperationOptions options) throws IOException {
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setUid(new Uid(user.getString(UID)));
+        if (user.has(ATTR_NAME)) {
+            builder.setName(user.getString(ATTR_NAME));
+        }
+        getIfExists(user, ATTR_MAIL, builder);
+        getIfExists(user, ATTR_THEME, builder);
+        getIfExists(user, ATTR_SIGNATURE, builder);
+        getIfExists(user, ATTR_SIGNATURE_FORMAT, builder);
+        getIfExists(user, ATTR_CREATED, builder);
+        getIfExists(user, ATTR_ACCESS, builder);
+        getIfExists(user, ATTR_LOGIN, builder);
+        getIfExists(user, ATTR_TIMEZONE, builder);
+        getIfExists(user, ATTR_LANGUAGE, builder);
+
+        if (user.has(ATTR_STATUS)) {
+            boolean enable = STATUS_ENABLED.equals(user.getString(ATTR_STATUS)) ? true : false;
+            addAttr(builder, OperationalAttributes.ENABLE_NAME, enable);
+        }
+
+        if (user.has(ATTR_ROLES)) {
+            JSONObject roles = user.getJSONObject(ATTR_ROLES);
+            String[] roleArray = roles.keySet().toArray(new String[roles.keySet().size()]);
+            builder.addAttribute(ATTR_ROLES, roleArray);
+        }
+
+        for (Map.Entry<String, String> entry : getConfiguration().getUserMetadatas().entrySet()) {
+            getUndFieldIfExists(user, entry.getKey(), builder, entry.getValue());
+        }
+
+        // read files (avatar) only if is explicitly requested & exists
+        Map<String, Future<JSONObject>> files = new LinkedHashMap<>();
+        Map<String, String> fids = new HashMap<>();
+        try {
+            for (String fileField : getConfiguration().getUser2files()) {
+                String fid = getFidValue(user, fileField);
+                if (user.has(fileField)) {
+                    // known digest is not valid, when file was changed directly in Drupal
+                    fileCache.checkDigest(user.getString(UID), fileField, fid);
+                }
+                if (!isAttributeToGet(options, fileField + TRANSFORMED_POSTFIX)) {
+                    continue;
+                }
+                if (jsonApi != null) {
+                    LOG.warn("file content of {0} is not read over JSON:API", fileField);
+                    continue;
+                }
+                if (fid != null) {
+                    byte[] cached = fileCache.isEnabled() ? fileCache.get(fid) : null;
+                    if (cached != null) {
+                        fileCache.putDigest(user.getString(UID), fileField, new FileCache.FileDigest(fid, FileCache.digest(cached)));
+                        builder.addAttribute(fileField + TRANSFORMED_POSTFIX, cached);
+                        continue;
+                    }
+                    files.put(fileField, readDetailAsync(getConfiguration().getServiceAddress() + FILE + "/" + fid));
+                    fids.put(fileField, fid);
+                }
+            }
+            for (Map.Entry<String, Future<JSONObject>> entry : files.entrySet()) {
+                JSONObject file = waitFor(entry.getValue());
+                byte[] content = Base64.decode(file.getString(ATTR_FILE_FILE));
+                if (fileCache.isEnabled()) {
+                    fileCache.put(fids.get(entry.getKey()), content);
+                }
+                fileCache.putDigest(user.getString(UID), entry.getKey(), new FileCache.FileDigest(fids.get(entry.getKey()), FileCache.digest(content)));
+                builder.addAttribute(entry.getKey() + TRANSFORMED_POSTFIX, content);
+            }
+        } finally {
+            for (Future<JSONObject> future : files.values()) {
+                future.cancel(true);
+            }
+        }
+
+        ConnectorObject connectorObject = builder.build();
+        LOG.ok("convertUserToConnectorObject, user: {0}, \n\tconnectorObject: {1}",
                 user.getString(UID), connectorObject);
         return connectorObject;
     }
 
     private boolean handleTaxonomies(HttpGet request, String machineName, ResultsHandler handler, OperationOptions options) throws IOException {
-        JSONArray taxonomies = callRequest(request);
-        LOG.ok("Number of taxonomies: {0}, pageResultsOffset: {1}, pageSize: {2} ", taxonomies.length(), options == null ? "null" : options.getPagedResultsOffset(), options == null ? "null" : options.getPageSize());
+        return new TaxonomyPageProcessor(machineName, handler, options).process(request);
+    }
 
-        for (int i = 0; i < taxonomies.length(); i++) {
-            if (i % 10 == 0) {
-                LOG.ok("executeQuery: processing {0}. of {1} users", i, taxonomies.length());
-            }
+    private class TaxonomyPageProcessor extends PageProcessor {
+
+        private final String machineName;
+        private final boolean readDetails;
+
+        TaxonomyPageProcessor(String machineName, ResultsHandler handler, OperationOptions options) {
+            super("taxonomies", handler, options);
+            this.machineName = machineName;
+            // with advanced fields we need to get it each one
+            Set<String> metadatas = getConfiguration().getTaxonomiesMetadatas().get(machineName).keySet();
+            this.readDetails = metadatas.size() > 0 && isAnyDetailToGet(options, metadatas, ATTR_TAX_PARENT);
+        }
+
+        @Override
+        String getDetailUri(JSONObject taxonomy) {
             // only basic fields
-            JSONObject taxonomy = taxonomies.getJSONObject(i);
             String machineVidFromResource = taxonomy.getString(VID);
             if (!getConfiguration().getTaxonomiesKeys().get(machineName).equals(machineVidFromResource)) {
                 throw new InvalidAttributeValueException("Expected taxonomy machine name" + machineName + " (" + getConfiguration().getTaxonomiesKeys().get(machineName) + ")" + ", but get " + machineVidFromResource);
             }
 
-            if (getConfiguration().getTaxonomiesMetadatas().get(machineName).size() > 0) {
-                // with advanced fields we need to get it each one
-                HttpGet requestDetail = new HttpGet(getConfiguration().getServiceAddress() + TAXONOMY_TERM + "/" + taxonomy.getString(TID));
-                taxonomy = callRequest(requestDetail, true);
-            }
-
-            ConnectorObject connectorObject = convertTaxonomyToConnectorObject(taxonomy, machineName);
-            boolean finish = !handler.handle(connectorObject);
-            if (finish) {
-                return true;
+            if (readDetails) {
+                return getConfiguration().getServiceAddress() + TAXONOMY_TERM + "/" + taxonomy.getString(TID);
             }
+            return null;
         }
 
-        // last page exceed
-        if (getConfiguration().getPageSize() > taxonomies.length()) {
+        @Override
+        boolean readDetailsInBatch() {
             return true;
         }
-        // need next page
-        return false;
+
+        @Override
+        String getDetailsBatchUri(List<JSONObject> taxonomies) {
+            return getConfiguration().getServiceAddress() + TAXONOMY_TERM + "?parameters[" + VID + "]=" + getConfiguration().getTaxonomiesKeys().get(machineName)
+                    + getDetailsBatchQuery(TID, taxonomies, TAXONOMY_COLUMNS, getConfiguration().getTaxonomiesMetadatas().get(machineName).keySet(), ATTR_TAX_PARENT);
+        }
+
+        @Override
+        boolean hasDetails(JSONObject taxonomy) {
+            return hasAll(taxonomy, getConfiguration().getTaxonomiesMetadatas().get(machineName).keySet());
+        }
+
+        @Override
+        String getId(JSONObject taxonomy) {
+            return taxonomy.getString(TID);
+        }
+
+        @Override
+        ConnectorObject convert(JSONObject taxonomy) {
+            return convertTaxonomyToConnectorObject(taxonomy, machineName);
+        }
     }
 
     private ConnectorObject convertTaxonomyToConnectorObject(JSONObject taxonomy, String machineName) {
@@ -1213,38 +3026,60 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
     }
 
     private boolean handleNodes(HttpGet request, String type, ResultsHandler handler, OperationOptions options) throws IOException {
-        JSONArray nodes = callRequest(request);
-        LOG.ok("Number of nodes: {0}, pageResultsOffset: {1}, pageSize: {2} ", nodes.length(), options == null ? "null" : options.getPagedResultsOffset(), options == null ? "null" : options.getPageSize());
+        return new NodePageProcessor(type, handler, options).process(request);
+    }
 
-        for (int i = 0; i < nodes.length(); i++) {
-            if (i % 10 == 0) {
-                LOG.ok("executeQuery: processing {0}. of {1} nodes", i, nodes.length());
-            }
-            JSONObject node = nodes.getJSONObject(i);
+    private class NodePageProcessor extends PageProcessor {
+
+        private final String type;
+        private final boolean readDetails;
+
+        NodePageProcessor(String type, ResultsHandler handler, OperationOptions options) {
+            super("nodes", handler, options);
+            this.type = type;
+            // with advanced fields we need to get it each one
+            Set<String> metadatas = getConfiguration().getNodesMetadatas().get(type).keySet();
+            this.readDetails = metadatas.size() > 0 && isAnyDetailToGet(options, metadatas, ATTR_NODE_BODY);
+        }
+
+        @Override
+        String getDetailUri(JSONObject node) {
             String typeFromResource = node.getString(ATTR_NODE_TYPE);
             if (!type.equals(typeFromResource)) {
                 throw new InvalidAttributeValueException("Expected node type " + type + ", but get " + typeFromResource);
             }
 
-            if (getConfiguration().getNodesMetadatas().get(type).size() > 0) {
-                // with advanced fields we need to get it each one
-                HttpGet requestDetail = new HttpGet(getConfiguration().getServiceAddress() + NODE + "/" + node.getString(NID));
-                node = callRequest(requestDetail, true);
-            }
-
-            ConnectorObject connectorObject = convertNodeToConnectorObject(node, type);
-            boolean finish = !handler.handle(connectorObject);
-            if (finish) {
-                return true;
+            if (readDetails) {
+                return getConfiguration().getServiceAddress() + NODE + "/" + node.getString(NID);
             }
+            return null;
         }
 
-        // last page exceed
-        if (getConfiguration().getPageSize() > nodes.length()) {
+        @Override
+        boolean readDetailsInBatch() {
             return true;
         }
-        // need next page
-        return false;
+
+        @Override
+        String getDetailsBatchUri(List<JSONObject> nodes) {
+            return getConfiguration().getServiceAddress() + NODE + "?parameters[" + ATTR_NODE_TYPE + "]=" + type
+                    + getDetailsBatchQuery(NID, nodes, NODE_COLUMNS, getConfiguration().getNodesMetadatas().get(type).keySet(), ATTR_NODE_BODY);
+        }
+
+        @Override
+        boolean hasDetails(JSONObject node) {
+            return hasAll(node, getConfiguration().getNodesMetadatas().get(type).keySet());
+        }
+
+        @Override
+        String getId(JSONObject node) {
+            return node.getString(NID);
+        }
+
+        @Override
+        ConnectorObject convert(JSONObject node) {
+            return convertNodeToConnectorObject(node, type);
+        }
     }
 
     private ConnectorObject convertNodeToConnectorObject(JSONObject node, String type) {
@@ -1269,16 +3104,8 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         return connectorObject;
     }
 
-    private String processPageOptions(OperationOptions options) {
-        if (options != null) {
-            Integer pageSize = options.getPageSize();
-            Integer pagedResultsOffset = options.getPagedResultsOffset();
-            if (pageSize != null && pagedResultsOffset != null) {
-
-                return processPaging(pagedResultsOffset, pageSize);
-            }
-        }
-        return "";
+    private boolean isPaged(OperationOptions options) {
+        return options != null && options.getPageSize() != null && options.getPageSize() > 0;
     }
 
     public String processPaging(int page, int pageSize) {
@@ -1290,6 +3117,76 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         return queryBuilder.toString();
     }
 
+    /**
+     * Translate attributesToGet to Services 'fields' projection of listed columns.
+     *
+     * @param idColumn       column with primary key, always returned
+     * @param nameColumn     column used as icfs:name, always returned
+     * @param columns        all columns returned when listing
+     * @param requiredColumns other columns, which connector needs when processing list
+     * @return empty string, when all fields are needed
+     */
+    private String processFieldsOptions(OperationOptions options, String idColumn, String nameColumn, List<String> columns, String... requiredColumns) {
+        if (options == null || options.getAttributesToGet() == null) {
+            return "";
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        fields.add(idColumn);
+        // connector object can't be build without name
+        fields.add(nameColumn);
+        fields.addAll(Arrays.asList(requiredColumns));
+        for (String attributeName : options.getAttributesToGet()) {
+            if (OperationalAttributes.ENABLE_NAME.equals(attributeName) && columns.contains(ATTR_STATUS)) {
+                fields.add(ATTR_STATUS);
+            } else if (columns.contains(attributeName)) {
+                fields.add(attributeName);
+            }
+        }
+
+        StringBuilder queryBuilder = new StringBuilder("&fields=");
+        Iterator<String> iterator = fields.iterator();
+        while (iterator.hasNext()) {
+            queryBuilder.append(iterator.next());
+            if (iterator.hasNext()) {
+                queryBuilder.append(",");
+            }
+        }
+        return queryBuilder.toString();
+    }
+
+    /**
+     * @return true, if attribute is explicitly requested in attributesToGet
+     */
+    private boolean isAttributeToGet(OperationOptions options, String attributeName) {
+        if (options == null || options.getAttributesToGet() == null) {
+            return false;
+        }
+        return Arrays.asList(options.getAttributesToGet()).contains(attributeName);
+    }
+
+    /**
+     * @param customFields     custom fields, which are returned only in details (also with his transformed attribute)
+     * @param otherDetailAttributes other attributes, which are returned only in details
+     * @return true, if any of the attributes is requested in attributesToGet (or attributesToGet is not set)
+     */
+    private boolean isAnyDetailToGet(OperationOptions options, Set<String> customFields, String... otherDetailAttributes) {
+        if (options == null || options.getAttributesToGet() == null) {
+            return true;
+        }
+        List<String> attributesToGet = Arrays.asList(options.getAttributesToGet());
+        for (String field : customFields) {
+            if (attributesToGet.contains(field) || attributesToGet.contains(field + TRANSFORMED_POSTFIX)) {
+                return true;
+            }
+        }
+        for (String attributeName : otherDetailAttributes) {
+            if (attributesToGet.contains(attributeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void getUndFieldIfExists(JSONObject object, String field, ConnectorObjectBuilder builder, String subFieldName) {
         if (object.has(field) && (object.opt(field) instanceof JSONObject)) {
 
@@ -1314,13 +3211,13 @@ public class DrupalConnector extends AbstractRestConnector<DrupalConfiguration>
         // taxonomy
         String machineName = getConfiguration().getUser2taxonomies().get(fieldName);
         if (machineName != null) { // need to transform
-            String transformedValue = taxonomyCache.getName(machineName, value);
+            String transformedValue = taxonomyCache.getName(this, machineName, value);
             addAttr(builder, fieldName + TRANSFORMED_POSTFIX, transformedValue);
         }
         // node
         String type = getConfiguration().getUser2nodes().get(fieldName);
         if (type != null) { // need to transform
-            String transformedValue = nodeCache.getName(type, value);
+            String transformedValue = nodeCache.getName(this, type, value);
             addAttr(builder, fieldName + TRANSFORMED_POSTFIX, transformedValue);
         }
     }
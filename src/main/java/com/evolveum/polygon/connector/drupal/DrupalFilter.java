@@ -1,5 +1,9 @@
 package com.evolveum.polygon.connector.drupal;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Created by gpalos on 18. 8. 2016.
  */
@@ -8,12 +12,44 @@ public class DrupalFilter {
     public String byUid;
     public String byEmailAddress;
 
+    /**
+     * OR of several values, set instead of the single valued byXxx
+     */
+    public List<String> byNames;
+    public List<String> byUids;
+    public List<String> byEmailAddresses;
+
+    /**
+     * other conditions (column: value) sent as Services list parameters, when set all conditions are searched by one list call
+     */
+    public Map<String, String> byParameters;
+
+    List<String> getNames() {
+        return byNames != null ? byNames : byName != null ? Collections.singletonList(byName) : null;
+    }
+
+    List<String> getUids() {
+        return byUids != null ? byUids : byUid != null ? Collections.singletonList(byUid) : null;
+    }
+
+    List<String> getEmailAddresses() {
+        return byEmailAddresses != null ? byEmailAddresses : byEmailAddress != null ? Collections.singletonList(byEmailAddress) : null;
+    }
+
+    boolean isMultiValued() {
+        return byNames != null || byUids != null || byEmailAddresses != null;
+    }
+
     @Override
     public String toString() {
         return "DrupalFilter{" +
                 "byName='" + byName + '\'' +
                 ", byUid=" + byUid +
                 ", byEmailAddress='" + byEmailAddress + '\'' +
+                ", byNames=" + byNames +
+                ", byUids=" + byUids +
+                ", byEmailAddresses=" + byEmailAddresses +
+                ", byParameters=" + byParameters +
                 '}';
     }
 }
@@ -18,16 +18,40 @@ package com.evolveum.polygon.connector.drupal;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
 import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * @author gpalos
  */
 public class DrupalFilterTranslator extends AbstractFilterTranslator<DrupalFilter> {
     private static final Log LOG = Log.getLog(DrupalFilterTranslator.class);
 
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_MAIL = "mail";
+
+    private final String idColumn;
+    private final String nameColumn;
+    /**
+     * columns, which Services can filter on when listing
+     */
+    private final List<String> columns;
+
+    public DrupalFilterTranslator(String idColumn, String nameColumn, List<String> columns) {
+        this.idColumn = idColumn;
+        this.nameColumn = nameColumn;
+        this.columns = columns;
+    }
+
     @Override
     protected DrupalFilter createEqualsExpression(EqualsFilter filter, boolean not) {
         LOG.ok("createEqualsExpression, filter: {0}, not: {1}", filter, not);
@@ -60,7 +84,123 @@ public class DrupalFilterTranslator extends AbstractFilterTranslator<DrupalFilte
                 return lf;
             }
         }
+        else if (OperationalAttributes.ENABLE_NAME.equals(attr.getName()) && columns.contains(COLUMN_STATUS)) {
+            if (attr.getValue() != null && attr.getValue().get(0) != null) {
+                DrupalFilter lf = new DrupalFilter();
+                lf.byParameters = new LinkedHashMap<>();
+                lf.byParameters.put(COLUMN_STATUS, Boolean.TRUE.equals(attr.getValue().get(0)) ? "1" : "0");
+                return lf;
+            }
+        }
+        else if (columns.contains(attr.getName())) {
+            if (attr.getValue() != null && attr.getValue().size() == 1 && attr.getValue().get(0) != null) {
+                DrupalFilter lf = new DrupalFilter();
+                lf.byParameters = new LinkedHashMap<>();
+                lf.byParameters.put(attr.getName(), String.valueOf(attr.getValue().get(0)));
+                return lf;
+            }
+        }
+
+        return null;            // not supported
+    }
+
+    /**
+     * OR of equality filters on the same attribute (UID, name or mail) is merged to one filter with several values,
+     * which is searched by one batched list call.
+     */
+    @Override
+    protected DrupalFilter createOrExpression(DrupalFilter leftExpression, DrupalFilter rightExpression) {
+        LOG.ok("createOrExpression, left: {0}, right: {1}", leftExpression, rightExpression);
+
+        DrupalFilter lf = new DrupalFilter();
+        if (isOnly(leftExpression.getUids(), leftExpression) && isOnly(rightExpression.getUids(), rightExpression)) {
+            lf.byUids = merge(leftExpression.getUids(), rightExpression.getUids());
+            return lf;
+        }
+        if (isOnly(leftExpression.getNames(), leftExpression) && isOnly(rightExpression.getNames(), rightExpression)) {
+            lf.byNames = merge(leftExpression.getNames(), rightExpression.getNames());
+            return lf;
+        }
+        if (isOnly(leftExpression.getEmailAddresses(), leftExpression) && isOnly(rightExpression.getEmailAddresses(), rightExpression)) {
+            lf.byEmailAddresses = merge(leftExpression.getEmailAddresses(), rightExpression.getEmailAddresses());
+            return lf;
+        }
 
         return null;            // not supported
     }
+
+    /**
+     * AND of conditions on listed columns is merged to one list call with several Services parameters. At most one side
+     * can be OR of several values. Conditions on other attributes (custom fields are not in the listed table) are
+     * not pushed down and are evaluated by the framework on the returned objects.
+     */
+    @Override
+    protected DrupalFilter createAndExpression(DrupalFilter leftExpression, DrupalFilter rightExpression) {
+        LOG.ok("createAndExpression, left: {0}, right: {1}", leftExpression, rightExpression);
+
+        if (leftExpression.isMultiValued() && rightExpression.isMultiValued()) {
+            return null;            // not supported
+        }
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (!addParameters(leftExpression, parameters) || !addParameters(rightExpression, parameters)) {
+            return null;            // not supported
+        }
+
+        DrupalFilter lf = new DrupalFilter();
+        DrupalFilter multiValued = leftExpression.isMultiValued() ? leftExpression : rightExpression.isMultiValued() ? rightExpression : null;
+        if (multiValued != null) {
+            lf.byUids = multiValued.byUids;
+            lf.byNames = multiValued.byNames;
+            lf.byEmailAddresses = multiValued.byEmailAddresses;
+        }
+        lf.byParameters = parameters;
+        return lf;
+    }
+
+    /**
+     * @return false, if column has other value already (empty result), AND is not pushed down then
+     */
+    private boolean addParameters(DrupalFilter filter, Map<String, String> parameters) {
+        Map<String, String> filterParameters = new LinkedHashMap<>();
+        if (filter.byUid != null) {
+            filterParameters.put(idColumn, filter.byUid);
+        }
+        if (filter.byName != null) {
+            filterParameters.put(nameColumn, filter.byName);
+        }
+        if (filter.byEmailAddress != null && columns.contains(COLUMN_MAIL)) {
+            filterParameters.put(COLUMN_MAIL, filter.byEmailAddress);
+        }
+        if (filter.byParameters != null) {
+            filterParameters.putAll(filter.byParameters);
+        }
+        for (Map.Entry<String, String> parameter : filterParameters.entrySet()) {
+            String value = parameters.get(parameter.getKey());
+            if (value != null && !value.equals(parameter.getValue())) {
+                return false;
+            }
+            parameters.put(parameter.getKey(), parameter.getValue());
+        }
+        return true;
+    }
+
+    private boolean isOnly(List<String> values, DrupalFilter filter) {
+        if (values == null) {
+            return false;
+        }
+        if (filter.byParameters != null) {
+            return false;
+        }
+        int conditions = 0;
+        conditions += filter.getUids() != null ? 1 : 0;
+        conditions += filter.getNames() != null ? 1 : 0;
+        conditions += filter.getEmailAddresses() != null ? 1 : 0;
+        return conditions == 1;
+    }
+
+    private List<String> merge(List<String> left, List<String> right) {
+        Set<String> values = new LinkedHashSet<>(left);
+        values.addAll(right);
+        return new ArrayList<>(values);
+    }
 }
@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of file (avatar) contents by FID. Drupal don't change content of existing file, new upload creates new FID,
+ * so cached content is never stale.
+ * <p>
+ * Contents are held in memory up to fileCacheMaxSize bytes, least recently used are spilled to fileCacheDirectory (when set),
+ * which is also bounded by fileCacheDirectoryMaxSize and survives connector instances. Spilled files are tracked once
+ * per directory in JVM, so all connector instances spilling to the same directory share this bound. Other JVMs using
+ * the same directory are not counted.
+ * <p>
+ * Independently of contents, cache remembers SHA-256 digest of file referenced by user's file field,
+ * so unchanged file don't need to be read from Drupal when user is updated. At most maxDigests least recently used
+ * digests are remembered.
+ */
+public class FileCache {
+    private static final Log LOG = Log.getLog(FileCache.class);
+
+    private static final String FILE_SUFFIX = ".fid";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * spilled files by canonical path of directory
+     */
+    private static final Map<String, SpillDirectory> directories = new HashMap<>();
+
+    private final long maxMemorySize;
+    private final SpillDirectory directory;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize = 0;
+
+    private final LinkedHashMap<String, FileDigest> digests;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FileCache(long maxMemorySize, String directory, long maxDirectorySize, final int maxDigests) {
+        this.maxMemorySize = maxMemorySize;
+        this.directory = directory == null || directory.isEmpty() ? null : getDirectory(new File(directory), maxDirectorySize);
+        this.digests = new LinkedHashMap<String, FileDigest>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FileDigest> eldest) {
+                return size() > maxDigests;
+            }
+        };
+    }
+
+    private static SpillDirectory getDirectory(File file, long maxSize) {
+        if (!file.isDirectory() && !file.mkdirs()) {
+            LOG.warn("fileCacheDirectory {0} is not a directory and can't be created, file cache stays only in memory", file);
+            return null;
+        }
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        synchronized (directories) {
+            SpillDirectory directory = directories.get(path);
+            if (directory == null) {
+                directory = new SpillDirectory(new File(path));
+                directories.put(path, directory);
+            }
+            directory.setMaxSize(maxSize);
+            return directory;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxMemorySize > 0 || directory != null;
+    }
+
+    /**
+     * @return cached content of file, or null when not cached
+     */
+    public synchronized byte[] get(String fid) {
+        byte[] content = memory.get(fid);
+        if (content == null && directory != null) {
+            content = directory.read(fid);
+            if (content != null) {
+                putToMemory(fid, content);
+            }
+        }
+        if (content == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return content;
+    }
+
+    public synchronized void put(String fid, byte[] content) {
+        if (!isValidFid(fid) || content == null || memory.containsKey(fid)) {
+            return;
+        }
+        putToMemory(fid, content);
+    }
+
+    private void putToMemory(String fid, byte[] content) {
+        memory.put(fid, content);
+        memorySize += content.length;
+
+        Iterator<Map.Entry<String, byte[]>> iterator = memory.entrySet().iterator();
+        while (memorySize > maxMemorySize && iterator.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            iterator.remove();
+            memorySize -= eldest.getValue().length;
+            evictions.incrementAndGet();
+            if (directory != null) {
+                directory.write(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    private boolean isValidFid(String fid) {
+        // FID is part of file name in directory
+        if (fid == null || fid.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < fid.length(); i++) {
+            if (!Character.isDigit(fid.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return digest of file, which user's file field references, or null if not known
+     */
+    public synchronized FileDigest getDigest(String uid, String fileField) {
+        return digests.get(uid + "/" + fileField);
+    }
+
+    public synchronized void putDigest(String uid, String fileField, FileDigest digest) {
+        digests.put(uid + "/" + fileField, digest);
+    }
+
+    /**
+     * Forget digest, when user's file field references other file as is known (changed directly in Drupal).
+     *
+     * @param fid currently referenced FID, or null when user don't has a file now
+     */
+    public synchronized void checkDigest(String uid, String fileField, String fid) {
+        String key = uid + "/" + fileField;
+        FileDigest digest = digests.get(key);
+        if (digest != null && !digest.getFid().equals(fid)) {
+            LOG.ok("file field {0} for UID {1} references FID {2} instead of known {3}, forgetting digest", fileField, uid, fid, digest.getFid());
+            digests.remove(key);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int getDigestCount() {
+        return digests.size();
+    }
+
+    /**
+     * @return size of files spilled to directory by all connector instances, or 0 when directory is not used
+     */
+    public long getSpilledSize() {
+        return directory == null ? 0 : directory.getSize();
+    }
+
+    /**
+     * Clear memory, spilled files stay in directory for the next connector instance.
+     */
+    public synchronized void clear() {
+        LOG.ok("clearing {0}", this);
+        memory.clear();
+        memorySize = 0;
+        digests.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FileCache{" +
+                "memoryCount=" + memory.size() +
+                ", memorySize=" + memorySize +
+                ", directory=" + directory +
+                ", digestCount=" + digests.size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+    /**
+     * Files spilled to one directory by all connector instances in JVM, least recently used are deleted over max. size.
+     */
+    private static class SpillDirectory {
+        private final File directory;
+        private long maxSize;
+
+        private final LinkedHashMap<String, Long> spilled = new LinkedHashMap<>(16, 0.75f, true);
+        private long size = 0;
+
+        SpillDirectory(File directory) {
+            this.directory = directory;
+            load();
+        }
+
+        private void load() {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            // oldest first, as if they was used in this order
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                if (file.isFile() && name.endsWith(FILE_SUFFIX)) {
+                    spilled.put(name.substring(0, name.length() - FILE_SUFFIX.length()), file.length());
+                    size += file.length();
+                }
+            }
+            LOG.ok("fileCache directory {0} loaded, count {1}, size {2}", directory, spilled.size(), size);
+        }
+
+        /**
+         * The last connector instance configures the bound for all.
+         */
+        synchronized void setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+            evict();
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
+
+        synchronized byte[] read(String fid) {
+            if (!spilled.containsKey(fid)) {
+                return null;
+            }
+            File file = getFile(fid);
+            try {
+                byte[] content = Files.readAllBytes(file.toPath());
+                // keep LRU order also after restart
+                file.setLastModified(System.currentTimeMillis());
+                return content;
+            } catch (IOException e) {
+                LOG.warn(e, "can't read spilled file {0} from fileCacheDirectory {1}, ignoring it: {2}", fid, directory, e.getMessage());
+                Long fileSize = spilled.remove(fid);
+                if (fileSize != null) {
+                    size -= fileSize;
+                }
+                return null;
+            }
+        }
+
+        synchronized void write(String fid, byte[] content) {
+            if (spilled.containsKey(fid) || content.length > maxSize) {
+                return;
+            }
+            try {
+                Files.write(getFile(fid).toPath(), content);
+            } catch (IOException e) {
+                LOG.warn(e, "can't spill file {0} to fileCacheDirectory {1}: {2}", fid, directory, e.getMessage());
+                return;
+            }
+            spilled.put(fid, (long) content.length);
+            size += content.length;
+            evict();
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<String, Long>> iterator = spilled.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                iterator.remove();
+                size -= eldest.getValue();
+                if (!getFile(eldest.getKey()).delete()) {
+                    LOG.warn("can't delete spilled file {0} from fileCacheDirectory {1}", eldest.getKey(), directory);
+                }
+            }
+        }
+
+        private File getFile(String fid) {
+            return new File(directory, fid + FILE_SUFFIX);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return directory + "{count=" + spilled.size() + ", size=" + size + ", maxSize=" + maxSize + "}";
+        }
+    }
+
+    /**
+     * FID and digest of his content.
+     */
+    public static class FileDigest {
+        private final String fid;
+        private final byte[] digest;
+
+        public FileDigest(String fid, byte[] digest) {
+            this.fid = fid;
+            this.digest = digest;
+        }
+
+        public String getFid() {
+            return fid;
+        }
+
+        public boolean hasSameContent(byte[] otherDigest) {
+            return MessageDigest.isEqual(digest, otherDigest);
+        }
+    }
+}
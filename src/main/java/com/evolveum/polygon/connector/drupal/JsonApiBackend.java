@@ -0,0 +1,500 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.apache.http.client.methods.HttpGet;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationalAttributes;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Reading of users, taxonomy terms and nodes from Drupal 8+ over JSON:API module (protocol=jsonapi).
+ * <p>
+ * Resources are converted to the same records as Drupal 7 Services returns (internal IDs, timestamps in seconds,
+ * custom fields in 'und' array), so they are converted to connector objects by the same code as with Services.
+ * Only requested attributes are read by sparse fieldsets, and referenced taxonomy terms and nodes are included
+ * in the same response and put to taxonomyCache and nodeCache, so transformed values don't need other calls.
+ */
+public class JsonApiBackend {
+    private static final Log LOG = Log.getLog(JsonApiBackend.class);
+
+    private static final String CONTENT_TYPE = "application/vnd.api+json";
+
+    protected static final String USER = "user";
+    protected static final String TAXONOMY_TERM = "taxonomy_term";
+    protected static final String NODE = "node";
+
+    // json strings
+    private static final String DATA = "data";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String RELATIONSHIPS = "relationships";
+    private static final String INCLUDED = "included";
+    private static final String META = "meta";
+    private static final String LINKS = "links";
+    private static final String NEXT = "next";
+    private static final String HREF = "href";
+    private static final String TYPE = "type";
+    private static final String ID = "id";
+    private static final String INTERNAL_PREFIX = "drupal_internal__";
+    private static final String TARGET_ID = INTERNAL_PREFIX + "target_id";
+    private static final String TYPE_SEPARATOR = "--";
+    private static final String LANGCODE = "langcode";
+    private static final String VIRTUAL_PARENT = "virtual";
+    private static final String ROOT_PARENT = "0";
+    private static final String ANONYMOUS_UID = "0";
+
+    // RFC 3339 timestamps converted to seconds, as Services returns them
+    private static final List<String> TIMESTAMP_COLUMNS = Arrays.asList("created", "changed", "access", "login");
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ssXXX";
+
+    DrupalConnector connector;
+
+    public JsonApiBackend(DrupalConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * @return JSON:API entity type of object class with this ID column
+     */
+    static String getEntityType(String idColumn) {
+        if (DrupalConnector.UID.equals(idColumn)) {
+            return USER;
+        } else if (DrupalConnector.TID.equals(idColumn)) {
+            return TAXONOMY_TERM;
+        }
+        return NODE;
+    }
+
+    private static String getIdColumn(String entityType) {
+        if (USER.equals(entityType)) {
+            return DrupalConnector.UID;
+        } else if (TAXONOMY_TERM.equals(entityType)) {
+            return DrupalConnector.TID;
+        }
+        return DrupalConnector.NID;
+    }
+
+    private static String getResourceType(String entityType, String bundle) {
+        return entityType + TYPE_SEPARATOR + (bundle == null ? entityType : bundle);
+    }
+
+    public void test() throws IOException {
+        read(connector.getConfiguration().getServiceAddress() + "/" + USER + "/" + USER + "?page[limit]=1");
+    }
+
+    /**
+     * List URI of resource with filter, sparse fieldsets and included references, without paging.
+     *
+     * @param bundle         vocabulary machine name or node type, null for users
+     * @param fieldMetadatas custom fields of object class and their value keys
+     * @param query          filter, or null to list all
+     */
+    public String getListUri(String idColumn, String nameColumn, String bundle, Map<String, String> fieldMetadatas,
+                             DrupalFilter query, OperationOptions options) throws UnsupportedEncodingException {
+        String entityType = getEntityType(idColumn);
+        StringBuilder uri = new StringBuilder(connector.getConfiguration().getServiceAddress());
+        uri.append("/").append(entityType).append("/").append(bundle == null ? entityType : bundle);
+        uri.append("?sort=").append(INTERNAL_PREFIX).append(idColumn);
+
+        if (query != null) {
+            appendFilter(uri, idColumn, query.getUids());
+            appendFilter(uri, nameColumn, query.getNames());
+            appendFilter(uri, connector.ATTR_MAIL, query.getEmailAddresses());
+            if (query.byParameters != null) {
+                for (Map.Entry<String, String> parameter : query.byParameters.entrySet()) {
+                    appendFilter(uri, parameter.getKey(), Collections.singletonList(parameter.getValue()));
+                }
+            }
+        }
+
+        if (options != null && options.getAttributesToGet() != null) {
+            Set<String> fields = new LinkedHashSet<>();
+            fields.add(INTERNAL_PREFIX + idColumn);
+            // connector object can't be build without name
+            fields.add(nameColumn);
+            for (String attributeName : options.getAttributesToGet()) {
+                if (OperationalAttributes.ENABLE_NAME.equals(attributeName)) {
+                    fields.add(connector.ATTR_STATUS);
+                } else if (connector.ATTR_LANGUAGE.equals(attributeName)) {
+                    fields.add(LANGCODE);
+                } else if (connector.ATTR_TAX_FORMAT.equals(attributeName) && TAXONOMY_TERM.equals(entityType)) {
+                    fields.add(connector.ATTR_TAX_DESCRIPTION);
+                } else if (attributeName.endsWith(connector.TRANSFORMED_POSTFIX)) {
+                    fields.add(attributeName.substring(0, attributeName.length() - connector.TRANSFORMED_POSTFIX.length()));
+                } else if (!attributeName.startsWith("__")) {
+                    fields.add(attributeName);
+                }
+            }
+            uri.append("&fields[").append(getResourceType(entityType, bundle)).append("]=").append(toCsv(fields));
+        }
+
+        // referenced terms and nodes, only their names are needed
+        List<String> includes = new ArrayList<>();
+        Map<String, String> includedFields = new LinkedHashMap<>();
+        for (String field : fieldMetadatas.keySet()) {
+            if (options != null && options.getAttributesToGet() != null
+                    && !Arrays.asList(options.getAttributesToGet()).contains(field + connector.TRANSFORMED_POSTFIX)) {
+                continue;
+            }
+            String machineName = connector.getConfiguration().getUser2taxonomies().get(field);
+            String type = connector.getConfiguration().getUser2nodes().get(field);
+            if (machineName != null) {
+                includes.add(field);
+                includedFields.put(getResourceType(TAXONOMY_TERM, machineName), connector.ATTR_NAME + "," + INTERNAL_PREFIX + connector.TID);
+            } else if (type != null) {
+                includes.add(field);
+                includedFields.put(getResourceType(NODE, type), connector.ATTR_NODE_TITLE + "," + INTERNAL_PREFIX + connector.NID);
+            }
+        }
+        if (!includes.isEmpty()) {
+            uri.append("&include=").append(toCsv(includes));
+            for (Map.Entry<String, String> fields : includedFields.entrySet()) {
+                uri.append("&fields[").append(fields.getKey()).append("]=").append(fields.getValue());
+            }
+        }
+        return uri.toString();
+    }
+
+    private void appendFilter(StringBuilder uri, String column, List<String> values) throws UnsupportedEncodingException {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        String path = toPath(column);
+        if (values.size() == 1) {
+            uri.append("&filter[").append(path).append("]=").append(URLEncoder.encode(values.get(0), "UTF-8"));
+            return;
+        }
+        uri.append("&filter[").append(path).append("][condition][path]=").append(path);
+        uri.append("&filter[").append(path).append("][condition][operator]=IN");
+        for (String value : values) {
+            uri.append("&filter[").append(path).append("][condition][value][]=").append(URLEncoder.encode(value, "UTF-8"));
+        }
+    }
+
+    private String toPath(String column) {
+        if (connector.UID.equals(column) || connector.TID.equals(column) || connector.NID.equals(column)) {
+            return INTERNAL_PREFIX + column;
+        } else if (connector.ATTR_LANGUAGE.equals(column)) {
+            return LANGCODE;
+        }
+        return column;
+    }
+
+    private String toCsv(Collection<String> values) {
+        StringBuilder csv = new StringBuilder();
+        for (String value : values) {
+            if (csv.length() > 0) {
+                csv.append(",");
+            }
+            csv.append(value);
+        }
+        return csv.toString();
+    }
+
+    /**
+     * List all pages following 'next' links.
+     */
+    public void findAllPages(String uri, int pageSize, DrupalConnector.PageHandler pageHandler) throws IOException {
+        String next = uri + "&page[limit]=" + pageSize;
+        int pages = 0;
+        while (next != null) {
+            JSONObject document = read(next);
+            pages++;
+            if (DrupalConnector.handlePage(pageHandler, getRecords(document))) {
+                break;
+            }
+            next = getNextUri(document);
+        }
+        LOG.ok("listed {0} pages of {1}", pages, uri);
+    }
+
+    /**
+     * @param offset 0-based index of the first resource
+     */
+    public JSONObject readPage(String uri, int offset, int limit) throws IOException {
+        return read(uri + "&page[offset]=" + offset + "&page[limit]=" + limit);
+    }
+
+    /**
+     * @return URI of the next page, or null after the last page
+     */
+    public String getNextUri(JSONObject document) {
+        JSONObject links = document.optJSONObject(LINKS);
+        if (links == null || !links.has(NEXT)) {
+            return null;
+        }
+        Object next = links.get(NEXT);
+        // JSON:API 1.0 allows link as string or link object
+        return next instanceof JSONObject ? ((JSONObject) next).optString(HREF, null) : (String) next;
+    }
+
+    JSONObject read(String uri) throws IOException {
+        HttpGet request = new HttpGet(uri);
+        request.setHeader("Accept", CONTENT_TYPE);
+        return connector.callRequest(request, true);
+    }
+
+    /**
+     * Convert resources of document to Services records and put included terms and nodes to caches.
+     */
+    public JSONArray getRecords(JSONObject document) {
+        JSONArray included = document.optJSONArray(INCLUDED);
+        if (included != null) {
+            for (int i = 0; i < included.length(); i++) {
+                putToCache(included.getJSONObject(i));
+            }
+        }
+        JSONArray records = new JSONArray();
+        Object data = document.opt(DATA);
+        if (data instanceof JSONArray) {
+            for (int i = 0; i < ((JSONArray) data).length(); i++) {
+                JSONObject record = convert(((JSONArray) data).getJSONObject(i));
+                if (ANONYMOUS_UID.equals(record.optString(connector.UID))) {
+                    // listed, but not a real account
+                    continue;
+                }
+                records.put(record);
+            }
+        } else if (data instanceof JSONObject) {
+            records.put(convert((JSONObject) data));
+        }
+        return records;
+    }
+
+    /**
+     * Count of resources in data of document, which are covered by the first handled records returned by getRecords,
+     * including skipped anonymous user, so that next page can start after them.
+     *
+     * @param handled count of handled records, or -1 for all resources of document
+     */
+    public int getResourceCount(JSONObject document, int handled) {
+        Object data = document.opt(DATA);
+        if (!(data instanceof JSONArray)) {
+            return data == null ? 0 : 1;
+        }
+        JSONArray resources = (JSONArray) data;
+        if (handled < 0) {
+            return resources.length();
+        }
+        int count = 0;
+        int records = 0;
+        for (; count < resources.length(); count++) {
+            if (!ANONYMOUS_UID.equals(convert(resources.getJSONObject(count)).optString(connector.UID))) {
+                if (records == handled) {
+                    break;
+                }
+                records++;
+            }
+        }
+        return count;
+    }
+
+    private void putToCache(JSONObject resource) {
+        String[] type = resource.getString(TYPE).split(TYPE_SEPARATOR, 2);
+        JSONObject attributes = resource.optJSONObject(ATTRIBUTES);
+        if (type.length != 2 || attributes == null) {
+            return;
+        }
+        if (TAXONOMY_TERM.equals(type[0]) && connector.taxonomyCache != null) {
+            connector.taxonomyCache.putIncluded(type[1], String.valueOf(attributes.get(INTERNAL_PREFIX + connector.TID)),
+                    attributes.optString(connector.ATTR_NAME, null));
+        } else if (NODE.equals(type[0]) && connector.nodeCache != null) {
+            connector.nodeCache.putIncluded(type[1], String.valueOf(attributes.get(INTERNAL_PREFIX + connector.NID)),
+                    attributes.optString(connector.ATTR_NODE_TITLE, null));
+        }
+    }
+
+    private Map<String, String> getFieldMetadatas(String entityType, String bundle) {
+        Map<String, String> fields = null;
+        if (USER.equals(entityType)) {
+            fields = connector.getConfiguration().getUserMetadatas();
+        } else if (TAXONOMY_TERM.equals(entityType)) {
+            fields = connector.getConfiguration().getTaxonomiesMetadatas().get(bundle);
+        } else if (NODE.equals(entityType) && connector.getConfiguration().getNodesMetadatas().containsKey(bundle)) {
+            fields = new HashMap<>(connector.getConfiguration().getNodesMetadatas().get(bundle));
+            fields.put(connector.ATTR_NODE_BODY, connector.VALUE);
+        }
+        return fields == null ? Collections.<String, String>emptyMap() : fields;
+    }
+
+    /**
+     * Convert JSON:API resource to record in the same structure as Services returns it.
+     */
+    JSONObject convert(JSONObject resource) {
+        String[] type = resource.getString(TYPE).split(TYPE_SEPARATOR, 2);
+        String entityType = type[0];
+        String bundle = type.length > 1 ? type[1] : null;
+        String idColumn = getIdColumn(entityType);
+        Map<String, String> fields = getFieldMetadatas(entityType, bundle);
+
+        JSONObject record = new JSONObject();
+        if (TAXONOMY_TERM.equals(entityType)) {
+            record.put(connector.ATTR_TAX_VOCABULARY_MACHINE_NAME, bundle);
+        } else if (NODE.equals(entityType)) {
+            record.put(connector.ATTR_NODE_TYPE, bundle);
+        }
+
+        JSONObject attributes = resource.optJSONObject(ATTRIBUTES);
+        if (attributes != null) {
+            for (String key : attributes.keySet()) {
+                Object value = attributes.get(key);
+                if (fields.containsKey(key)) {
+                    record.put(key, toUnd(value, fields.get(key)));
+                } else if (JSONObject.NULL.equals(value)) {
+                    continue;
+                } else if ((INTERNAL_PREFIX + idColumn).equals(key)) {
+                    record.put(idColumn, String.valueOf(value));
+                } else if (key.startsWith(INTERNAL_PREFIX)) {
+                    // revision IDs, ...
+                    continue;
+                } else if (LANGCODE.equals(key)) {
+                    record.put(connector.ATTR_LANGUAGE, String.valueOf(value));
+                } else if (value instanceof Boolean) {
+                    record.put(key, (Boolean) value ? connector.STATUS_ENABLED : connector.STATUS_BLOCKED);
+                } else if (TIMESTAMP_COLUMNS.contains(key)) {
+                    record.put(key, toSeconds(value));
+                } else if (value instanceof JSONObject) {
+                    // formatted text
+                    JSONObject text = (JSONObject) value;
+                    record.put(key, text.has(connector.VALUE) ? String.valueOf(text.get(connector.VALUE)) : text.toString());
+                    if (connector.ATTR_TAX_DESCRIPTION.equals(key) && text.has(connector.ATTR_TAX_FORMAT) && !text.isNull(connector.ATTR_TAX_FORMAT)) {
+                        record.put(connector.ATTR_TAX_FORMAT, String.valueOf(text.get(connector.ATTR_TAX_FORMAT)));
+                    }
+                } else if (!(value instanceof JSONArray)) {
+                    record.put(key, String.valueOf(value));
+                }
+            }
+        }
+
+        JSONObject relationships = resource.optJSONObject(RELATIONSHIPS);
+        if (relationships != null) {
+            for (String key : relationships.keySet()) {
+                JSONObject relationship = relationships.optJSONObject(key);
+                if (relationship == null) {
+                    continue;
+                }
+                List<String> targetIds = getTargetIds(relationship.opt(DATA));
+                if (fields.containsKey(key)) {
+                    record.put(key, toUnd(new JSONArray(targetIds), fields.get(key)));
+                } else if (connector.ATTR_ROLES.equals(key) && USER.equals(entityType)) {
+                    JSONObject roles = new JSONObject();
+                    for (String role : targetIds) {
+                        roles.put(role, role);
+                    }
+                    record.put(key, roles);
+                } else if (connector.ATTR_TAX_PARENT.equals(key) && TAXONOMY_TERM.equals(entityType)) {
+                    record.put(key, new JSONArray(targetIds));
+                }
+            }
+        }
+        return record;
+    }
+
+    private List<String> getTargetIds(Object data) {
+        List<String> targetIds = new ArrayList<>();
+        if (data instanceof JSONObject) {
+            addTargetId((JSONObject) data, targetIds);
+        } else if (data instanceof JSONArray) {
+            for (int i = 0; i < ((JSONArray) data).length(); i++) {
+                addTargetId(((JSONArray) data).getJSONObject(i), targetIds);
+            }
+        }
+        return targetIds;
+    }
+
+    private void addTargetId(JSONObject identifier, List<String> targetIds) {
+        JSONObject meta = identifier.optJSONObject(META);
+        if (meta != null && meta.has(TARGET_ID)) {
+            targetIds.add(String.valueOf(meta.get(TARGET_ID)));
+        } else if (VIRTUAL_PARENT.equals(identifier.optString(ID))) {
+            // term without parent
+            targetIds.add(ROOT_PARENT);
+        }
+    }
+
+    /**
+     * @return value in Services 'und' structure: {"und":[{"value key":value}, ...]}
+     */
+    private JSONObject toUnd(Object value, String subFieldName) {
+        JSONArray items = new JSONArray();
+        JSONArray values = value instanceof JSONArray ? (JSONArray) value : new JSONArray().put(value);
+        for (int i = 0; i < values.length(); i++) {
+            Object item = values.get(i);
+            if (JSONObject.NULL.equals(item)) {
+                continue;
+            }
+            JSONObject undItem = new JSONObject();
+            if (item instanceof JSONObject) {
+                // properties of field item, for example value and format of text
+                JSONObject properties = (JSONObject) item;
+                for (String key : properties.keySet()) {
+                    if (!properties.isNull(key)) {
+                        undItem.put(key, String.valueOf(properties.get(key)));
+                    }
+                }
+            } else {
+                undItem.put(subFieldName, item instanceof Boolean ? ((Boolean) item ? "1" : "0") : String.valueOf(item));
+            }
+            items.put(undItem);
+        }
+        JSONObject und = new JSONObject();
+        und.put(connector.UND, items);
+        return und;
+    }
+
+    private String toSeconds(Object timestamp) {
+        if (timestamp instanceof Number) {
+            return String.valueOf(timestamp);
+        }
+        try {
+            return String.valueOf(new SimpleDateFormat(TIMESTAMP_FORMAT).parse(String.valueOf(timestamp)).getTime() / 1000);
+        } catch (ParseException e) {
+            LOG.warn("unsupported timestamp {0}, using it as is", timestamp);
+            return String.valueOf(timestamp);
+        }
+    }
+
+    /**
+     * Read name of one term or node, which was not included in list response.
+     *
+     * @return name, or null when not exists in the vocabulary (node type)
+     */
+    public String readName(String entityType, String bundle, String id) throws IOException {
+        String idColumn = getIdColumn(entityType);
+        String nameColumn = NODE.equals(entityType) ? connector.ATTR_NODE_TITLE : connector.ATTR_NAME;
+        JSONObject document = read(connector.getConfiguration().getServiceAddress() + "/" + entityType + "/" + bundle
+                + "?filter[" + INTERNAL_PREFIX + idColumn + "]=" + URLEncoder.encode(id, "UTF-8")
+                + "&fields[" + getResourceType(entityType, bundle) + "]=" + nameColumn);
+        JSONArray data = document.optJSONArray(DATA);
+        if (data == null || data.length() == 0) {
+            return null;
+        }
+        return data.getJSONObject(0).getJSONObject(ATTRIBUTES).optString(nameColumn, null);
+    }
+
+    public void clear() {
+        this.connector = null;
+    }
+}
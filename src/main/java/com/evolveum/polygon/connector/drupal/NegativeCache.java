@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IDs, which were not found or had other type (vocabulary) when read on cache miss, so they are not read again
+ * for every referencing record until time to live expires.
+ * <p>
+ * IDs of other type are kept apart, the cache can be shared by connector instances with different ignoreTypeMismatch
+ * and only instances ignoring type mismatch can return null for them, other instances read them again and fail.
+ */
+public class NegativeCache {
+    private static final Log LOG = Log.getLog(NegativeCache.class);
+
+    private final String name;
+    /**
+     * time to live in ms, 0 disables the cache
+     */
+    private final long ttl;
+
+    private static final String MISMATCH_PREFIX = "mismatch:";
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public NegativeCache(String name, long ttl) {
+        this.name = name;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param ignoreTypeMismatch true, when ID of other type is returned as missing
+     * @return entry of missing ID, or of ID of other type, or null
+     */
+    public Entry get(String key, boolean ignoreTypeMismatch) {
+        Entry entry = get(key);
+        if (entry == null && ignoreTypeMismatch) {
+            entry = get(MISMATCH_PREFIX + key);
+        }
+        return entry;
+    }
+
+    /**
+     * @return entry of missing ID, or null when ID is not known as missing or it's entry expired
+     */
+    public Entry get(String key) {
+        if (ttl <= 0) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires <= System.currentTimeMillis()) {
+            if (entries.remove(key, entry)) {
+                expirations.incrementAndGet();
+            }
+            return null;
+        }
+        hits.incrementAndGet();
+        LOG.ok("{0} negative cache hit for {1}", name, key);
+        return entry;
+    }
+
+    /**
+     * Remember missing ID.
+     *
+     * @param error message of exception thrown for missing ID, or null when null is returned as his value
+     */
+    public void put(String key, String error) {
+        if (ttl <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(now + ttl, error));
+        if (puts.incrementAndGet() % 1000 == 0) {
+            purge(now);
+        }
+    }
+
+    /**
+     * Remember ID of other type, which was returned as null by instance ignoring type mismatch.
+     */
+    public void putMismatch(String key) {
+        put(MISMATCH_PREFIX + key, null);
+    }
+
+    /**
+     * Forget missing ID or ID of other type, when it was found later (for example included in other response).
+     */
+    public void remove(String key) {
+        if (!entries.isEmpty()) {
+            entries.remove(key);
+            entries.remove(MISMATCH_PREFIX + key);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private void purge(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().expires <= now) {
+                iterator.remove();
+                expirations.incrementAndGet();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getPuts() {
+        return puts.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return name + " negative cache{size=" + entries.size() + ", hits=" + hits.get() + ", puts=" + puts.get()
+                + ", expirations=" + expirations.get() + ", ttl=" + ttl + "}";
+    }
+
+    public static class Entry {
+        private final long expires;
+        private final String error;
+
+        Entry(long expires, String error) {
+            this.expires = expires;
+            this.error = error;
+        }
+
+        /**
+         * @return message of exception thrown for missing ID, or null when null is returned as his value
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
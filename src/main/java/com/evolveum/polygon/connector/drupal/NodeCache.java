@@ -5,14 +5,18 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by gpalos on 6. 9. 2016.
@@ -20,94 +24,380 @@ import java.util.*;
 public class NodeCache {
     private static final Log LOG = Log.getLog(NodeCache.class);
 
-    Map<String, Map<String, String>> cacheById = new HashMap<>();
-    Map<String, Map<String, String>> cacheByName = new HashMap<>();
+    /**
+     * (NID, title) index by type
+     */
+    Map<String, NodeIndex> indexes = new ConcurrentHashMap<>();
 
+    /**
+     * connector listing the cache in background, lookups use their own connector
+     */
     DrupalConnector connector;
 
+    /**
+     * warmup in background by type, lookup waits for it
+     */
+    private final Map<String, Future<Void>> warmups = new ConcurrentHashMap<>();
+
+    /**
+     * names read on cache miss, by type and ID
+     */
+    private final SingleFlight<String> loads = new SingleFlight<>();
+
+    /**
+     * IDs found or created by name, by type and name
+     */
+    private final SingleFlight<String> creates = new SingleFlight<>();
+
+    /**
+     * NIDs not found or of other type, by type and ID
+     */
+    private final NegativeCache missing;
+
+    /**
+     * max. changed timestamp of listed or refreshed nodes by type, only listed types are refreshed
+     */
+    private final Map<String, Long> changedMarkers = new ConcurrentHashMap<>();
+
+    /**
+     * time of the next refresh in ms
+     */
+    private final AtomicLong nextRefresh = new AtomicLong();
+
+    /**
+     * listed node types stored for the next start, or null
+     */
+    private ReferenceSnapshot snapshot;
+
     public NodeCache(DrupalConnector connector) throws IOException {
         this.connector = connector;
-        Set<String> proceed = new HashSet<>();
+        this.missing = new NegativeCache("nodeCache", connector.getConfiguration().getNegativeCacheTtl());
+        this.nextRefresh.set(System.currentTimeMillis() + connector.getConfiguration().getNodeCacheRefreshInterval());
+        if (StringUtil.isNotEmpty(connector.getConfiguration().getReferenceSnapshotDirectory()) && connector.jsonApi == null) {
+            snapshot = new ReferenceSnapshot(connector.getConfiguration().getReferenceSnapshotDirectory(), connector.getConfiguration().getServiceAddress(), "node");
+        }
         for (String type : connector.getConfiguration().getUser2nodes().values()) {
-            if (proceed.contains(type)) {
+            if (indexes.containsKey(type)) {
+                continue;
+            }
+            indexes.put(type, newIndex());
+            if (connector.jsonApi != null) {
+                // names are included in JSON:API list responses, or read on demand
+                continue;
+            }
+            if (connector.getConfiguration().isLazyReference(type)) {
+                LOG.ok("nodeCache for type {0} is not listed, names are read on demand", type);
                 continue;
             }
-            else {
-                proceed.add(type);
-            }
-            int pageSize = connector.getConfiguration().getPageSize();
-            int page = 0;
-            while (true) {
-                String pageing = connector.processPaging(page, pageSize);
-                HttpGet request = new HttpGet(connector.getConfiguration().getServiceAddress() + connector.NODE + "?parameters[" + connector.ATTR_NODE_TYPE + "]="
-                        + type + pageing + "&fields=nid,title");
-                JSONArray nodes = connector.callRequest(request);
-
-                for (int i=0; i<nodes.length(); i++){
-                    JSONObject taxonomy = nodes.getJSONObject(i);
-                    String key = taxonomy.getString(connector.NID);
-                    String value = taxonomy.getString(connector.ATTR_NODE_TITLE);
-                    putToCache(type, key, value);
+            if (connector.getConfiguration().getAsyncCacheWarmup()) {
+                startWarmup(type);
+            } else {
+                warmup(connector, type);
+            }
+        }
+    }
+
+    private NodeIndex newIndex() {
+        return new NodeIndex(connector.getConfiguration().getNodeCacheMaxSize());
+    }
+
+    private void startWarmup(final String type) {
+        final DrupalConnector owner = connector;
+        warmups.put(type, owner.getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                warmup(owner, type);
+                return null;
+            }
+        }));
+    }
+
+    private String getListUri(DrupalConnector connector, String type) {
+        return connector.getConfiguration().getServiceAddress() + connector.NODE + "?parameters[" + connector.ATTR_NODE_TYPE + "]=" + type;
+    }
+
+    private void warmup(final DrupalConnector connector, final String type) throws IOException {
+        final NodeIndex index = indexes.get(type);
+        String listUri = getListUri(connector, type);
+        if (snapshot != null && isSnapshotFresh(connector, type, listUri)) {
+            for (Map.Entry<String, String> entry : snapshot.read(type).entrySet()) {
+                putToCache(type, index, entry.getKey(), entry.getValue());
+            }
+            LOG.ok("nodeCache for type {0} loaded from snapshot: {1}", type, index);
+            changedMarkers.put(type, snapshot.getMarker(type));
+            return;
+        }
+        final long[] maxChanged = {0};
+        connector.findAllPages(listUri + "&fields=nid,title,changed", connector.NID, new DrupalConnector.PageHandler() {
+            @Override
+            public boolean handle(JSONObject entity) {
+                if (indexes == null || indexes.get(type) != index) {
+                    // cleared or restarted by other connector while warming up
+                    return false;
+                }
+                String key = entity.getString(connector.NID);
+                String value = entity.getString(connector.ATTR_NODE_TITLE);
+                putToCache(type, index, key, value);
+                if (entity.has(connector.ATTR_NODE_CHANGED)) {
+                    maxChanged[0] = Math.max(maxChanged[0], Long.parseLong(entity.getString(connector.ATTR_NODE_CHANGED)));
                 }
+                return true;
+            }
 
-                if (nodes.length()==0 || nodes.length()<pageSize)
-                {
-                    break;
+            @Override
+            public boolean endPage() {
+                return indexes == null || indexes.get(type) != index;
+            }
+        });
+        if (indexes == null || indexes.get(type) != index) {
+            return;
+        }
+        LOG.ok("nodeCache for type {0} initialized: {1}", type, index);
+        changedMarkers.put(type, maxChanged[0]);
+        if (snapshot != null) {
+            snapshot.put(type, maxChanged[0], index.toMap());
+            snapshot.save();
+        }
+    }
+
+    /**
+     * Stored node type is used, when it is not older than referenceSnapshotMaxAge and no node was changed since it was
+     * stored, deleted nodes are found only after max. age.
+     */
+    private boolean isSnapshotFresh(DrupalConnector connector, String type, String listUri) throws IOException {
+        if (!snapshot.contains(type)) {
+            return false;
+        }
+        if (snapshot.isExpired(type, connector.getConfiguration().getReferenceSnapshotMaxAge())) {
+            LOG.ok("nodeCache snapshot of type {0} is older than max. age, listing it again", type);
+            return false;
+        }
+        return !isChangedSince(connector, listUri, snapshot.getMarker(type));
+    }
+
+    /**
+     * @return true, if any node of type was created or changed after the timestamp, by reading at most one node ID
+     */
+    private boolean isChangedSince(DrupalConnector connector, String listUri, long changed) throws IOException {
+        HttpGet request = new HttpGet(listUri + "&fields=nid&parameters[" + connector.ATTR_NODE_CHANGED + "]=" + changed
+                + "&options[parameters_op][" + connector.ATTR_NODE_CHANGED + "]=" + URLEncoder.encode(">", "UTF-8") + connector.processPaging(0, 1));
+        return connector.callRequest(request).length() > 0;
+    }
+
+    /**
+     * Refresh listed types, when nodeCacheRefreshInterval elapsed since the last refresh, only one caller does it.
+     */
+    public void refreshIfDue(DrupalConnector connector) {
+        long interval = connector.getConfiguration().getNodeCacheRefreshInterval();
+        if (interval <= 0) {
+            return;
+        }
+        long next = nextRefresh.get();
+        long now = System.currentTimeMillis();
+        if (now < next || !nextRefresh.compareAndSet(next, now + interval)) {
+            return;
+        }
+        refresh(connector);
+    }
+
+    /**
+     * Read nodes of listed types changed since they were listed or refreshed, and update their titles in place.
+     */
+    public void refresh(DrupalConnector connector) {
+        for (String type : new ArrayList<>(changedMarkers.keySet())) {
+            try {
+                refresh(connector, type);
+            } catch (IOException e) {
+                throw new ConnectorIOException("Error when refreshing nodeCache for type " + type + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void refresh(final DrupalConnector connector, final String type) throws IOException {
+        final NodeIndex index = indexes.get(type);
+        final long marker = changedMarkers.get(type);
+        final long[] maxChanged = {marker};
+        final int[] count = {0};
+        // >= also reads nodes changed in the same second after the last listing, updating them again is harmless
+        String uri = getListUri(connector, type) + "&fields=nid,title,changed&parameters[" + connector.ATTR_NODE_CHANGED + "]=" + marker
+                + "&options[parameters_op][" + connector.ATTR_NODE_CHANGED + "]=" + URLEncoder.encode(">=", "UTF-8");
+        connector.findAllPages(uri, connector.NID, new DrupalConnector.PageHandler() {
+            @Override
+            public boolean handle(JSONObject entity) {
+                if (indexes == null || indexes.get(type) != index) {
+                    // cleared or restarted by other connector while refreshing
+                    return false;
                 }
-                page++;
+                String key = entity.getString(connector.NID);
+                index.put(key, entity.getString(connector.ATTR_NODE_TITLE));
+                missing.remove(type + "/" + key);
+                maxChanged[0] = Math.max(maxChanged[0], Long.parseLong(entity.getString(connector.ATTR_NODE_CHANGED)));
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean endPage() {
+                return indexes == null || indexes.get(type) != index;
             }
-            LOG.ok("nodeCache for type "+type+" initialized, count {0}: values {1}", cacheById.get(type).size(), cacheById.get(type));
+        });
+        if (indexes == null || indexes.get(type) != index) {
+            return;
+        }
+        changedMarkers.put(type, maxChanged[0]);
+        LOG.ok("nodeCache for type {0} refreshed, changed nodes since {1}: {2}, {3}", type, marker, count[0], index);
+        if (snapshot != null && maxChanged[0] > marker) {
+            snapshot.put(type, maxChanged[0], index.toMap());
+            snapshot.save();
         }
     }
 
-    private void putToCache(String type, String key, String value) {
-        if (cacheById.get(type) == null) {
-            cacheById.put(type, new HashMap<String, String>());
-            cacheByName.put(type, new HashMap<String, String>());
+    /**
+     * Wait until type is listed, when it is warming up in background.
+     */
+    private void awaitWarmup(String type) {
+        while (true) {
+            Future<Void> warmup = warmups.get(type);
+            if (warmup == null) {
+                return;
+            }
+            if (!warmup.isDone()) {
+                LOG.ok("waiting for nodeCache warmup of type {0}", type);
+            }
+            try {
+                warmup.get();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while waiting for nodeCache warmup: " + e.getMessage(), e);
+            } catch (CancellationException | ExecutionException e) {
+                if (warmups.get(type) != warmup) {
+                    // restarted by the next owner, wait for it
+                    continue;
+                }
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (cause instanceof RuntimeException && !(cause instanceof CancellationException)) {
+                    throw (RuntimeException) cause;
+                }
+                throw new ConnectorIOException("Error while initializing nodeCache: " + cause.getMessage(), cause);
+            }
         }
+    }
 
-        if (cacheById.get(type).containsKey(key)) {
-            throw new InvalidAttributeValueException("NID '"+key+"' (value: '"+value+"') for type '"+type+"' already exists in nodeCache" + cacheById.get(type));
+    /**
+     * Continue unfinished warmups by other connector sharing this cache, when the owner is disposed.
+     */
+    void changeOwner(DrupalConnector oldOwner, DrupalConnector newOwner) {
+        if (connector != oldOwner) {
+            return;
         }
-        else {
-            cacheById.get(type).put(key, value);
+        connector = newOwner;
+        for (String type : new ArrayList<>(warmups.keySet())) {
+            Future<Void> previous = warmups.get(type);
+            if (previous.isDone()) {
+                continue;
+            }
+            LOG.ok("restarting nodeCache warmup of type {0} by other connector", type);
+            indexes.put(type, newIndex());
+            changedMarkers.remove(type);
+            startWarmup(type);
+            previous.cancel(true);
         }
+    }
 
-        if (cacheByName.get(type).containsKey(value)) {
-            throw new InvalidAttributeValueException("Value '"+value+"' (TID: "+key+") for type '"+type+"' already exists in nodeCache: " + cacheByName.get(type));
+    private void putToCache(String type, String key, String value) {
+        if (indexes.get(type) == null) {
+            indexes.put(type, newIndex());
         }
-        else if (StringUtil.isNotEmpty(value)){
-            cacheByName.get(type).put(value, key);
+        putToCache(type, indexes.get(type), key, value);
+    }
+
+    private void putToCache(String type, NodeIndex index, String key, String value) {
+
+        // the same node can be read again, by concurrent load or from snapshot and listing
+        String existing = index.getId(value);
+        if (existing != null && !existing.equals(key)) {
+            throw new InvalidAttributeValueException("Value '"+value+"' (NID: "+key+") for type '"+type+"' already exists in nodeCache with NID: " + existing);
         }
+        index.put(key, value);
+    }
+
+    /**
+     * Put node included in other response, when his type is cached.
+     */
+    public void putIncluded(String type, String id, String value) {
+        awaitWarmup(type);
+        if (indexes == null || indexes.get(type) == null || value == null) {
+            return;
+        }
+        indexes.get(type).put(id, value);
+        missing.remove(type + "/" + id);
     }
 
     public void clear() {
-        if (cacheById != null) {
-            cacheById.clear();
-            cacheById = null;
+        LOG.ok("clearing {0}", missing);
+        missing.clear();
+        for (Future<Void> warmup : warmups.values()) {
+            warmup.cancel(true);
         }
-        if (cacheByName != null) {
-            cacheByName.clear();
-            cacheByName = null;
+        warmups.clear();
+        changedMarkers.clear();
+        if (indexes != null) {
+            indexes.clear();
+            indexes = null;
         }
 
         this.connector = null;
     }
 
-    public String getName(String type, String id) {
+    public String getName(final DrupalConnector connector, final String type, final String id) {
+        awaitWarmup(type);
+        refreshIfDue(connector);
         LOG.ok("getName for type {0} and id {1}", type, id);
-        if (!cacheById.get(type).containsKey(id)) {
+        String title = indexes.get(type).getTitle(id);
+        if (title != null) {
+            return title;
+        }
+        NegativeCache.Entry notFound = missing.get(type + "/" + id, connector.getConfiguration().getIgnoreTypeMismatch());
+        if (notFound != null) {
+            if (notFound.getError() != null) {
+                throw new UnknownUidException(notFound.getError());
+            }
+            return null;
+        }
+        return loads.run(type + "/" + id, new Callable<String>() {
+            @Override
+            public String call() {
+                return loadName(connector, type, id);
+            }
+        });
+    }
+
+    private String loadName(DrupalConnector connector, String type, String id) {
+        // loaded by other thread meanwhile
+        if (!indexes.get(type).containsId(id)) {
             // read it and put to cache
 
+            if (connector.jsonApi != null) {
+                return readName(connector, type, id);
+            }
             try {
                 HttpGet request = new HttpGet(connector.getConfiguration().getServiceAddress() + connector.NODE + "/" + id);
-                JSONObject node = connector.callRequest(request, true);
+                JSONObject node;
+                try {
+                    node = connector.callRequest(request, true);
+                } catch (UnknownUidException e) {
+                    // deleted node, don't read it again for every referencing user
+                    missing.put(type + "/" + id, e.getMessage());
+                    throw e;
+                }
                 String value = node.getString(connector.ATTR_NODE_TITLE);
 
                 String typeFromResource = node.getString(connector.ATTR_NODE_TYPE);
                 if (!type.equals(typeFromResource)){
                     if (connector.getConfiguration().getIgnoreTypeMismatch()){
                         LOG.warn("Expected " + type + ", but get " + typeFromResource + " for NID:" + id+" ("+value+"), returning NULL");
+                        missing.putMismatch(type + "/" + id);
                         return null;
                     }
                     else {
@@ -116,17 +406,57 @@ public class NodeCache {
                 }
 
                 putToCache(type, id, value);
+                missing.remove(type + "/" + id);
             } catch (IOException e) {
                 throw new ConnectorIOException(e.getMessage(), e);
             }
         }
 
-        return cacheById.get(type).get(id);
+        return indexes.get(type).getTitle(id);
+    }
+
+    private String readName(DrupalConnector connector, String type, String id) {
+        try {
+            String value = connector.jsonApi.readName(JsonApiBackend.NODE, type, id);
+            if (value == null) {
+                LOG.warn("NID {0} not found in type {1}, returning NULL", id, type);
+                missing.put(type + "/" + id, null);
+                return null;
+            }
+            putIncluded(type, id, value);
+            return value;
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return not found and mismatched NIDs with hit counters
+     */
+    public NegativeCache getMissing() {
+        return missing;
     }
 
-    public String getIdOrCreate(String type, String fieldValue) {
+    public String getIdOrCreate(final DrupalConnector connector, final String type, final String fieldValue) {
+        awaitWarmup(type);
+        refreshIfDue(connector);
         LOG.ok("getIdOrCreate for type {0} and value {1}", type, fieldValue);
-        String id = cacheByName.get(type).get(fieldValue);
+        String id = indexes.get(type).getId(fieldValue);
+        if (StringUtil.isNotEmpty(id)) {
+            return id; // exists & is OK
+        }
+        // only one thread searches and creates the same name
+        return creates.run(type + "/" + fieldValue, new Callable<String>() {
+            @Override
+            public String call() {
+                return findOrCreateId(connector, type, fieldValue);
+            }
+        });
+    }
+
+    private String findOrCreateId(DrupalConnector connector, String type, String fieldValue) {
+        // found or created by other thread meanwhile
+        String id = indexes.get(type).getId(fieldValue);
         if (StringUtil.isNotEmpty(id)) {
             return id; // exists & is OK
         }
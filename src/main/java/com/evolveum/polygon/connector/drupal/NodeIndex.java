@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact (NID, title) mapping of one node type for nodeCache.
+ * <p>
+ * Every node takes one slot: NID as primitive int and title stored only once. Both directions are open addressing
+ * tables with linear probing, which hold only slot numbers, so NID and title are not duplicated as map keys.
+ * When maxSize is reached, the slot of not recently used node is reused (CLOCK eviction, approximation of LRU),
+ * evicted nodes are read again on the next miss.
+ */
+public class NodeIndex {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = -1;
+
+    /**
+     * max. count of nodes, 0 means not limited
+     */
+    private final int maxSize;
+
+    private int[] ids;
+    private String[] titles;
+    private boolean[] referenced;
+    private int used;
+    private int size;
+
+    /**
+     * slots, which were removed, reused before the next unused slot
+     */
+    private int[] free;
+    private int freeCount;
+
+    private int[] byId;
+    private int[] byTitle;
+
+    private int hand;
+    private long evictions;
+
+    public NodeIndex(int maxSize) {
+        this.maxSize = maxSize;
+        int capacity = maxSize > 0 ? Math.min(INITIAL_CAPACITY, maxSize) : INITIAL_CAPACITY;
+        ids = new int[capacity];
+        titles = new String[capacity];
+        referenced = new boolean[capacity];
+        free = new int[capacity];
+        byId = newTable(capacity);
+        byTitle = newTable(capacity);
+    }
+
+    public static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new InvalidAttributeValueException("NID '" + id + "' is not a number", e);
+        }
+    }
+
+    public synchronized boolean containsId(String id) {
+        return findId(parseId(id)) != EMPTY;
+    }
+
+    /**
+     * @return title of node, or null when it is not cached
+     */
+    public synchronized String getTitle(String id) {
+        int slot = findId(parseId(id));
+        if (slot == EMPTY) {
+            return null;
+        }
+        referenced[slot] = true;
+        return titles[slot];
+    }
+
+    /**
+     * @return NID of node with title, or null when it is not cached
+     */
+    public synchronized String getId(String title) {
+        int slot = findTitle(title);
+        if (slot == EMPTY) {
+            return null;
+        }
+        referenced[slot] = true;
+        return String.valueOf(ids[slot]);
+    }
+
+    /**
+     * Put node or replace title of cached node, title points to the last node put with it.
+     */
+    public synchronized void put(String id, String title) {
+        int nid = parseId(id);
+        int slot = findId(nid);
+        if (slot != EMPTY) {
+            removeTitle(slot);
+        } else {
+            slot = allocate();
+            ids[slot] = nid;
+            insert(byId, slot, hash(nid));
+            size++;
+        }
+        titles[slot] = title;
+        referenced[slot] = true;
+        if (title != null && !title.isEmpty()) {
+            int existing = findTitle(title);
+            if (existing != EMPTY) {
+                removeTitle(existing);
+            }
+            insert(byTitle, slot, hash(title.hashCode()));
+        }
+    }
+
+    public synchronized void remove(String id) {
+        int slot = findId(parseId(id));
+        if (slot != EMPTY) {
+            release(slot);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return copy of all cached (NID, title) pairs
+     */
+    public synchronized Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int slot = 0; slot < used; slot++) {
+            if (findId(ids[slot]) == slot) {
+                map.put(String.valueOf(ids[slot]), titles[slot]);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "NodeIndex{size=" + size + ", capacity=" + ids.length + ", maxSize=" + maxSize + ", evictions=" + evictions + "}";
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (used == ids.length) {
+            if (maxSize > 0 && used >= maxSize) {
+                return evict();
+            }
+            grow();
+        }
+        return used++;
+    }
+
+    /**
+     * Release the first slot without reference bit, clearing reference bits on the way.
+     */
+    private int evict() {
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % used;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+            } else {
+                release(slot);
+                evictions++;
+                return free[--freeCount];
+            }
+        }
+    }
+
+    private void release(int slot) {
+        removeTitle(slot);
+        delete(byId, slot, hash(ids[slot]));
+        titles[slot] = null;
+        referenced[slot] = false;
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    private void removeTitle(int slot) {
+        String title = titles[slot];
+        if (title != null && !title.isEmpty() && findTitle(title) == slot) {
+            delete(byTitle, slot, hash(title.hashCode()));
+        }
+    }
+
+    private int findId(int nid) {
+        int mask = byId.length - 1;
+        for (int i = hash(nid) & mask; byId[i] != EMPTY; i = (i + 1) & mask) {
+            if (ids[byId[i]] == nid) {
+                return byId[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    private int findTitle(String title) {
+        if (title == null) {
+            return EMPTY;
+        }
+        int mask = byTitle.length - 1;
+        for (int i = hash(title.hashCode()) & mask; byTitle[i] != EMPTY; i = (i + 1) & mask) {
+            if (title.equals(titles[byTitle[i]])) {
+                return byTitle[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    private static void insert(int[] table, int slot, int hash) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+    }
+
+    /**
+     * Remove slot from table and shift following entries of the probe sequence back, so they are still found.
+     */
+    private void delete(int[] table, int slot, int hash) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != slot) {
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hashOf(table, table[j]) & mask;
+            // move entry j to gap, when its home position is not between gap and j
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = EMPTY;
+    }
+
+    private int hashOf(int[] table, int slot) {
+        return table == byId ? hash(ids[slot]) : hash(titles[slot].hashCode());
+    }
+
+    /**
+     * Called only when all slots are used, tables are rebuilt from the old ones.
+     */
+    private void grow() {
+        int capacity = ids.length * 2;
+        if (maxSize > 0) {
+            capacity = Math.min(capacity, maxSize);
+        }
+        ids = Arrays.copyOf(ids, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        referenced = Arrays.copyOf(referenced, capacity);
+        free = Arrays.copyOf(free, capacity);
+        int[] oldById = byId;
+        int[] oldByTitle = byTitle;
+        byId = newTable(capacity);
+        byTitle = newTable(capacity);
+        for (int slot : oldById) {
+            if (slot != EMPTY) {
+                insert(byId, slot, hash(ids[slot]));
+            }
+        }
+        for (int slot : oldByTitle) {
+            if (slot != EMPTY) {
+                insert(byTitle, slot, hash(titles[slot].hashCode()));
+            }
+        }
+    }
+
+    /**
+     * table with load factor at most 0.5
+     */
+    private static int[] newTable(int capacity) {
+        int length = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+        int[] table = new int[length];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    static int hash(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Page size used when listing, tuned separately for every listed resource (users, terms of vocabulary, nodes of type).
+ * Page size grows twice while full pages are returned in less than half of target response time, and shrinks
+ * to half when page takes longer than target, or when request fails by timeout or server error.
+ * <p>
+ * Services limits page size by services_{resource}_index_page_size variable (20 by default), so page size larger than
+ * the largest one, which returned full page, is not verified: short page can be limited by server instead of being
+ * the last one. When such limit is found, page size of the resource never grows above it.
+ * <p>
+ * When disabled, configured pageSize is always used.
+ */
+public class PageSizeTuner {
+    private static final Log LOG = Log.getLog(PageSizeTuner.class);
+
+    private final boolean enabled;
+    private final int initialPageSize;
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final long targetMillis;
+
+    private final Map<String, Integer> pageSizes = new HashMap<>();
+    /**
+     * the largest page size, which returned full page
+     */
+    private final Map<String, Integer> verifiedPageSizes = new HashMap<>();
+    /**
+     * page size limited by server
+     */
+    private final Map<String, Integer> limits = new HashMap<>();
+
+    private final AtomicLong grows = new AtomicLong();
+    private final AtomicLong shrinks = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public PageSizeTuner(boolean enabled, int initialPageSize, int minPageSize, int maxPageSize, long targetMillis) {
+        this.enabled = enabled;
+        this.minPageSize = Math.max(1, minPageSize);
+        this.maxPageSize = Math.max(this.minPageSize, maxPageSize);
+        this.initialPageSize = enabled ? Math.min(this.maxPageSize, Math.max(this.minPageSize, initialPageSize)) : initialPageSize;
+        this.targetMillis = targetMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized int getPageSize(String resource) {
+        Integer pageSize = pageSizes.get(resource);
+        return pageSize == null ? initialPageSize : pageSize;
+    }
+
+    /**
+     * @return true, if page of this size can't be limited by server: it is not larger than initial page size, or
+     * full page of this size was already read, or it is not larger than found limit, or tuning is disabled
+     */
+    public synchronized boolean isVerified(String resource, int pageSize) {
+        if (!enabled || pageSize <= initialPageSize) {
+            return true;
+        }
+        Integer verified = verifiedPageSizes.get(resource);
+        Integer limit = limits.get(resource);
+        return (verified != null && pageSize <= verified) || (limit != null && pageSize <= limit);
+    }
+
+    /**
+     * Record page size limit found on server, page size never grows above it. Limit found by concurrently read pages
+     * can be smaller than the real one, the largest one is kept.
+     */
+    public synchronized void limit(String resource, int limit) {
+        Integer known = limits.get(resource);
+        if (known != null && known >= limit) {
+            return;
+        }
+        limits.put(resource, limit);
+        if (getPageSize(resource) > limit) {
+            setPageSize(resource, limit, "page size is limited by server");
+        }
+    }
+
+    private int getMaxPageSize(String resource) {
+        Integer limit = limits.get(resource);
+        return limit == null ? maxPageSize : Math.min(maxPageSize, limit);
+    }
+
+    /**
+     * Record successfully read page.
+     *
+     * @param pageSize requested page size
+     * @param count    count of returned records
+     */
+    public synchronized void success(String resource, int pageSize, int count, long millis) {
+        if (!enabled) {
+            return;
+        }
+        if (count == pageSize) {
+            // server don't limit pages of this size
+            Integer verified = verifiedPageSizes.get(resource);
+            if (verified == null || verified < pageSize) {
+                verifiedPageSizes.put(resource, pageSize);
+            }
+        }
+        if (pageSize != getPageSize(resource)) {
+            return;
+        }
+        int max = getMaxPageSize(resource);
+        if (millis > targetMillis) {
+            shrink(resource, pageSize, "page was read in " + millis + " ms");
+        } else if (count == pageSize && millis < targetMillis / 2 && pageSize < max) {
+            // only full pages, short last page don't say anything
+            setPageSize(resource, Math.min(max, pageSize * 2), "page was read in " + millis + " ms");
+            grows.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record timeout or server error.
+     *
+     * @return new smaller page size, or the same, when it is already the minimal one
+     */
+    public synchronized int failure(String resource, int pageSize, Exception e) {
+        failures.incrementAndGet();
+        if (enabled) {
+            shrink(resource, pageSize, e.getMessage());
+        }
+        return getPageSize(resource);
+    }
+
+    private void shrink(String resource, int pageSize, String reason) {
+        if (pageSize > minPageSize) {
+            setPageSize(resource, Math.max(minPageSize, pageSize / 2), reason);
+            shrinks.incrementAndGet();
+        }
+    }
+
+    private void setPageSize(String resource, int pageSize, String reason) {
+        LOG.info("page size for {0} changed from {1} to {2}, {3}", resource, getPageSize(resource), pageSize, reason);
+        pageSizes.put(resource, pageSize);
+    }
+
+    public long getGrows() {
+        return grows.get();
+    }
+
+    public long getShrinks() {
+        return shrinks.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PageSizeTuner{" +
+                "enabled=" + enabled +
+                ", pageSizes=" + pageSizes +
+                ", limits=" + limits +
+                ", grows=" + grows +
+                ", shrinks=" + shrinks +
+                ", failures=" + failures +
+                '}';
+    }
+}
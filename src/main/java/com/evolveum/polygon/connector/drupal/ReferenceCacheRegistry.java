@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Taxonomy and node caches shared by all connector instances (pooled instances) with the same Drupal
+ * and reference configuration, so they are listed and held in memory only once per JVM.
+ * <p>
+ * Caches are counted by connector instances holding them and cleared, when the last one is disposed.
+ * Warmup in background continues by other holder, when the instance, which started it, is disposed.
+ * <p>
+ * Caches are created (and warmed up) outside of any global lock, instances with the same configuration wait
+ * for the instance creating them, instances with other configuration don't wait.
+ */
+public class ReferenceCacheRegistry {
+    private static final Log LOG = Log.getLog(ReferenceCacheRegistry.class);
+
+    private static final ConcurrentMap<String, FutureTask<SharedCaches>> registry = new ConcurrentHashMap<>();
+
+    private ReferenceCacheRegistry() {
+    }
+
+    /**
+     * @return caches for configuration of connector, created and warmed up by this connector, when not exists yet
+     */
+    public static SharedCaches acquire(final DrupalConnector connector) throws IOException {
+        final String key = getKey(connector.getConfiguration());
+        while (true) {
+            FutureTask<SharedCaches> task = new FutureTask<>(new Callable<SharedCaches>() {
+                @Override
+                public SharedCaches call() throws Exception {
+                    SharedCaches caches = new SharedCaches(key, new TaxonomyCache(connector), new NodeCache(connector));
+                    LOG.ok("shared reference caches created for {0}", key);
+                    return caches;
+                }
+            });
+            FutureTask<SharedCaches> entry = registry.putIfAbsent(key, task);
+            if (entry == null) {
+                entry = task;
+                task.run();
+            }
+
+            SharedCaches caches;
+            try {
+                caches = entry.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while waiting for shared reference caches: " + e.getMessage(), e);
+            } catch (ExecutionException e) {
+                // next instance tries it again
+                registry.remove(key, entry);
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new ConnectorException(cause.getMessage(), cause);
+            }
+
+            synchronized (caches) {
+                if (caches.released) {
+                    // the last holder released them meanwhile
+                    registry.remove(key, entry);
+                    continue;
+                }
+                caches.entry = entry;
+                caches.holders.add(connector);
+                LOG.ok("shared reference caches acquired, holders: {0}, caches in registry: {1}", caches.holders.size(), registry.size());
+            }
+            return caches;
+        }
+    }
+
+    public static void release(DrupalConnector connector, SharedCaches caches) {
+        synchronized (caches) {
+            caches.holders.remove(connector);
+            if (caches.holders.isEmpty()) {
+                LOG.ok("last holder released shared reference caches for {0}, clearing them", caches.key);
+                caches.released = true;
+                registry.remove(caches.key, caches.entry);
+                caches.taxonomyCache.clear();
+                caches.nodeCache.clear();
+                return;
+            }
+            DrupalConnector nextOwner = caches.holders.iterator().next();
+            caches.taxonomyCache.changeOwner(connector, nextOwner);
+            caches.nodeCache.changeOwner(connector, nextOwner);
+            LOG.ok("shared reference caches released, holders: {0}", caches.holders.size());
+        }
+    }
+
+    /**
+     * Everything what changes content of caches: Drupal, credentials and referenced vocabularies and node types.
+     */
+    private static String getKey(DrupalConfiguration configuration) {
+        return configuration.getServiceAddress()
+                + "|" + configuration.getProtocol()
+                + "|" + configuration.getUsername()
+                + "|" + Arrays.toString(configuration.getUserFields())
+                + "|" + Arrays.toString(configuration.getTaxonomies())
+                + "|" + Arrays.toString(configuration.getNodes())
+                + "|" + Arrays.toString(configuration.getLazyReferences());
+    }
+
+    /**
+     * Caches of one configuration and connector instances holding them.
+     */
+    public static class SharedCaches {
+        private final String key;
+        private final TaxonomyCache taxonomyCache;
+        private final NodeCache nodeCache;
+        private final Set<DrupalConnector> holders = Collections.newSetFromMap(new IdentityHashMap<DrupalConnector, Boolean>());
+        /**
+         * registry entry of these caches
+         */
+        private FutureTask<SharedCaches> entry;
+        /**
+         * released by the last holder and cleared
+         */
+        private boolean released;
+
+        SharedCaches(String key, TaxonomyCache taxonomyCache, NodeCache nodeCache) {
+            this.key = key;
+            this.taxonomyCache = taxonomyCache;
+            this.nodeCache = nodeCache;
+        }
+
+        public TaxonomyCache getTaxonomyCache() {
+            return taxonomyCache;
+        }
+
+        public NodeCache getNodeCache() {
+            return nodeCache;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Local snapshot of taxonomyCache or nodeCache in memory-mapped file, so caches are loaded after restart
+ * instead of listing all referenced vocabularies (node types) again.
+ * <p>
+ * File contains one section for every vocabulary (node type) with freshness marker (max. changed timestamp for nodes),
+ * time when it was listed and (ID, name) pairs. File format: magic, version, service address, count of sections, and
+ * for every section name, marker, listed time, count of pairs and pairs, strings are stored as length and UTF-8 bytes,
+ * numbers big-endian.
+ * <p>
+ * Marker of vocabulary is its max. term ID, taxonomy terms don't have changed timestamp. Section older than
+ * referenceSnapshotMaxAge is not used, so deleted nodes and renamed terms are listed again at the latest after it.
+ */
+public class ReferenceSnapshot {
+    private static final Log LOG = Log.getLog(ReferenceSnapshot.class);
+
+    private static final int MAGIC = 0x44524546; // DREF
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final String serviceAddress;
+
+    private MappedByteBuffer buffer;
+    /**
+     * position of section entries in buffer by section name
+     */
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<String, Long> markers = new HashMap<>();
+    private final Map<String, Long> listedTimes = new HashMap<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    /**
+     * sections listed after the snapshot was loaded, not saved yet
+     */
+    private final Map<String, Section> updated = new LinkedHashMap<>();
+
+    public ReferenceSnapshot(String directory, String serviceAddress, String kind) {
+        this.serviceAddress = serviceAddress;
+        this.file = new File(directory, kind + "-" + SnapshotStore.getFileKey(serviceAddress) + ".refs");
+        load();
+    }
+
+    private void load() {
+        positions.clear();
+        markers.clear();
+        listedTimes.clear();
+        counts.clear();
+        buffer = null;
+        if (!file.isFile()) {
+            LOG.ok("reference snapshot {0} not exists yet", file);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                LOG.warn("reference snapshot {0} has unsupported format, ignoring it", file);
+                return;
+            }
+            String address = getString(mapped);
+            if (!serviceAddress.equals(address)) {
+                LOG.warn("reference snapshot {0} was created for {1}, ignoring it", file, address);
+                return;
+            }
+            int sections = mapped.getInt();
+            for (int i = 0; i < sections; i++) {
+                String name = getString(mapped);
+                markers.put(name, mapped.getLong());
+                listedTimes.put(name, mapped.getLong());
+                int count = mapped.getInt();
+                counts.put(name, count);
+                positions.put(name, mapped.position());
+                // skip entries
+                for (int j = 0; j < count * 2; j++) {
+                    mapped.position(mapped.position() + 4 + mapped.getInt(mapped.position()));
+                }
+            }
+            buffer = mapped;
+            LOG.ok("reference snapshot {0} loaded, sections {1}", file, counts);
+        } catch (IOException | RuntimeException e) {
+            // truncated or damaged file is only slower start
+            LOG.warn(e, "can't read reference snapshot {0}, ignoring it: {1}", file, e.getMessage());
+            positions.clear();
+            markers.clear();
+            listedTimes.clear();
+            counts.clear();
+        }
+    }
+
+    public synchronized boolean contains(String name) {
+        return positions.containsKey(name);
+    }
+
+    public synchronized long getMarker(String name) {
+        return markers.get(name);
+    }
+
+    public synchronized int getCount(String name) {
+        return counts.get(name);
+    }
+
+    /**
+     * @param maxAge max. age in ms, 0 or less means not limited
+     * @return true, if section was listed longer than maxAge ago, or later than now (clock was changed)
+     */
+    public synchronized boolean isExpired(String name, long maxAge) {
+        long age = System.currentTimeMillis() - listedTimes.get(name);
+        return maxAge > 0 && (age > maxAge || age < 0);
+    }
+
+    /**
+     * @return (ID, name) pairs of section
+     */
+    public synchronized Map<String, String> read(String name) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        ByteBuffer section = buffer.duplicate();
+        section.position(positions.get(name));
+        for (int i = 0; i < counts.get(name); i++) {
+            entries.put(getString(section), getString(section));
+        }
+        return entries;
+    }
+
+    /**
+     * Replace section by pairs listed now, stored by the next save.
+     */
+    public synchronized void put(String name, long marker, Map<String, String> entries) {
+        updated.put(name, new Section(marker, System.currentTimeMillis(), new LinkedHashMap<>(entries)));
+    }
+
+    /**
+     * Write sections from the current file, which can be saved by other connector instance meanwhile, and updated
+     * sections to the new file and replace the old one.
+     */
+    public synchronized void save() {
+        final Set<String> names = new LinkedHashSet<>();
+        try {
+            SnapshotStore.replace(file, new SnapshotStore.Content() {
+                @Override
+                public byte[] create() throws IOException {
+                    load();
+                    names.addAll(positions.keySet());
+                    names.addAll(updated.keySet());
+                    return write(names);
+                }
+            });
+        } catch (IOException e) {
+            throw new ConnectorIOException("Error when writing reference snapshot " + file + ": " + e.getMessage(), e);
+        }
+        LOG.ok("reference snapshot {0} saved, sections {1}", file, names);
+        updated.clear();
+        load();
+    }
+
+    private byte[] write(Set<String> names) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        putString(out, serviceAddress);
+        out.writeInt(names.size());
+        for (String name : names) {
+            Section section = updated.get(name);
+            long marker = section != null ? section.marker : markers.get(name);
+            long listedTime = section != null ? section.listedTime : listedTimes.get(name);
+            Map<String, String> entries = section != null ? section.entries : read(name);
+            putString(out, name);
+            out.writeLong(marker);
+            out.writeLong(listedTime);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                putString(out, entry.getKey());
+                putString(out, entry.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class Section {
+        private final long marker;
+        private final long listedTime;
+        private final Map<String, String> entries;
+
+        Section(long marker, long listedTime, Map<String, String> entries) {
+            this.marker = marker;
+            this.listedTime = listedTime;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import java.util.concurrent.*;
+
+/**
+ * Runs at most one load for the same key at a time, concurrent callers for this key wait for its result
+ * instead of sending the same request again.
+ */
+public class SingleFlight<T> {
+    private static final Log LOG = Log.getLog(SingleFlight.class);
+
+    private final ConcurrentMap<String, FutureTask<T>> inFlight = new ConcurrentHashMap<>();
+
+    public T run(String key, Callable<T> loader) {
+        FutureTask<T> task = new FutureTask<>(loader);
+        FutureTask<T> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            LOG.ok("waiting for {0} loaded by other thread", key);
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for " + key + ": " + e.getMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ConnectorException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return count of keys being loaded now
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorIOException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compact local snapshot of one object class: content hash for every ID, sorted by ID and stored in memory-mapped file.
+ * Used to find changed and deleted objects, when Drupal don't have reliable timestamps for them.
+ * <p>
+ * File format: magic, version, generation, count and count pairs of (ID, hash), all numbers big-endian.
+ */
+public class SnapshotStore {
+    private static final Log LOG = Log.getLog(SnapshotStore.class);
+
+    private static final int MAGIC = 0x44534e50; // DSNP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int ENTRY_SIZE = 8 + 8;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * lock of every replaced file in this JVM, file lock is held by JVM, not by thread
+     */
+    private static final ConcurrentMap<String, Object> replaceLocks = new ConcurrentHashMap<>();
+
+    private final File file;
+
+    private long generation = 0;
+    private int count = 0;
+    private MappedByteBuffer entries;
+
+    /**
+     * IDs and hashes of the snapshot being built
+     */
+    private long[] newIds = new long[1024];
+    private long[] newHashes = new long[1024];
+    private int newCount = 0;
+
+    public SnapshotStore(String directory, String serviceAddress, String objectClass) {
+        this.file = new File(directory, objectClass.replaceAll("[^A-Za-z0-9_]", "_") + "-" + getFileKey(serviceAddress) + ".snapshot");
+        load();
+    }
+
+    /**
+     * @return hex SHA-256 of service address, so snapshots of different Drupal sites never share file name
+     */
+    static String getFileKey(String serviceAddress) {
+        StringBuilder key = new StringBuilder();
+        for (byte b : FileCache.digest(serviceAddress.getBytes(StandardCharsets.UTF_8))) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            LOG.ok("snapshot {0} not exists yet", file);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                LOG.warn("snapshot {0} has unsupported format, ignoring it", file);
+                return;
+            }
+            generation = buffer.getLong(8);
+            count = buffer.getInt(16);
+            if (channel.size() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+                LOG.warn("snapshot {0} is truncated, ignoring it", file);
+                count = 0;
+                generation = 0;
+                return;
+            }
+            entries = buffer;
+            LOG.ok("snapshot {0} loaded, generation {1}, count {2}", file, generation, count);
+        } catch (IOException e) {
+            throw new ConnectorIOException("Error when reading snapshot " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public boolean exists() {
+        return entries != null;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Compare new snapshot with empty one, every object is new and no object is deleted. Generation is kept,
+     * so saved snapshot has higher generation as the stored one.
+     */
+    public void ignoreStored() {
+        entries = null;
+        count = 0;
+    }
+
+    /**
+     * Add object to the new snapshot.
+     *
+     * @return true, if object is new or changed since the stored snapshot
+     */
+    public boolean put(long id, long hash) {
+        if (newCount == newIds.length) {
+            newIds = Arrays.copyOf(newIds, newCount * 2);
+            newHashes = Arrays.copyOf(newHashes, newCount * 2);
+        }
+        newIds[newCount] = id;
+        newHashes[newCount] = hash;
+        newCount++;
+
+        int index = find(id);
+        return index < 0 || entries.getLong(HEADER_SIZE + index * ENTRY_SIZE + 8) != hash;
+    }
+
+    /**
+     * @return IDs from stored snapshot, which are not in the new snapshot
+     */
+    public List<Long> getDeleted() {
+        sortNew();
+        List<Long> deleted = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = entries.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+            if (Arrays.binarySearch(newIds, 0, newCount, id) < 0) {
+                deleted.add(id);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Replace stored snapshot with the new one. Generation follows the snapshot, which is stored just now,
+     * also when other sync replaced it since this one was loaded.
+     *
+     * @return generation of the new snapshot
+     */
+    public long save() {
+        sortNew();
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + newCount * ENTRY_SIZE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(generation + 1).putInt(newCount);
+        for (int i = 0; i < newCount; i++) {
+            buffer.putLong(newIds[i]).putLong(newHashes[i]);
+        }
+        try {
+            replace(file, new Content() {
+                @Override
+                public byte[] create() throws IOException {
+                    buffer.putLong(8, Math.max(generation, readGeneration(file)) + 1);
+                    return buffer.array();
+                }
+            });
+        } catch (IOException e) {
+            throw new ConnectorIOException("Error when writing snapshot " + file + ": " + e.getMessage(), e);
+        }
+        LOG.ok("snapshot {0} saved, generation {1}, count {2}", file, buffer.getLong(8), newCount);
+        newIds = new long[1024];
+        newHashes = new long[1024];
+        newCount = 0;
+        entries = null;
+        load();
+        return generation;
+    }
+
+    /**
+     * @return generation of stored snapshot, or 0 when there is no valid snapshot
+     */
+    private static long readGeneration(File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                return 0;
+            }
+            return raf.readLong();
+        }
+    }
+
+    /**
+     * Content of replaced file, created while other writers of the file wait.
+     */
+    interface Content {
+        byte[] create() throws IOException;
+    }
+
+    /**
+     * Write content to new temporary file in the same directory and move it over the file. Writers of the same file
+     * wait for each other, in this JVM and in other processes by lock of '{file}.lock', so every moved file is complete
+     * and content can be created from the current file.
+     */
+    static void replace(File file, Content content) throws IOException {
+        String path = file.getCanonicalPath();
+        Object jvmLock = replaceLocks.get(path);
+        if (jvmLock == null) {
+            Object newLock = new Object();
+            jvmLock = replaceLocks.putIfAbsent(path, newLock);
+            if (jvmLock == null) {
+                jvmLock = newLock;
+            }
+        }
+        synchronized (jvmLock) {
+            try (FileChannel lockChannel = FileChannel.open(new File(path + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = lockChannel.lock()) {
+                Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName() + ".", ".tmp");
+                try {
+                    Files.write(tmp, content.create());
+                    Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+    }
+
+    private int find(long id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = entries.getLong(HEADER_SIZE + middle * ENTRY_SIZE);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private void sortNew() {
+        for (int i = 1; i < newCount; i++) {
+            if (newIds[i - 1] > newIds[i]) {
+                // listed not in ID order, sort pairs by ID
+                final long[] ids = newIds;
+                Integer[] indexes = new Integer[newCount];
+                for (int j = 0; j < newCount; j++) {
+                    indexes[j] = j;
+                }
+                Arrays.sort(indexes, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer i1, Integer i2) {
+                        return Long.compare(ids[i1], ids[i2]);
+                    }
+                });
+                long[] sortedIds = new long[newIds.length];
+                long[] sortedHashes = new long[newHashes.length];
+                for (int j = 0; j < newCount; j++) {
+                    sortedIds[j] = newIds[indexes[j]];
+                    sortedHashes[j] = newHashes[indexes[j]];
+                }
+                newIds = sortedIds;
+                newHashes = sortedHashes;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of attributes of object, attribute names must be always the same and in the same order,
+     * missing attribute is hashed as attribute without value.
+     */
+    public static long hash(ConnectorObject object, List<String> attributeNames) {
+        long hash = FNV_OFFSET_BASIS;
+        for (String attributeName : attributeNames) {
+            hash = hash(hash, attributeName.getBytes(StandardCharsets.UTF_8));
+            Attribute attribute = object.getAttributeByName(attributeName);
+            if (attribute == null || attribute.getValue() == null) {
+                continue;
+            }
+            for (Object value : attribute.getValue()) {
+                byte[] bytes = value instanceof byte[] ? (byte[]) value : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+                hash = hash(hash, bytes);
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        // separator between values
+        hash ^= 0xff;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
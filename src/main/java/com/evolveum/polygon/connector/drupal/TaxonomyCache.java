@@ -14,6 +14,7 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by gpalos on 22. 8. 2016.
@@ -21,68 +22,266 @@ import java.util.*;
 public class TaxonomyCache {
     private static final Log LOG = Log.getLog(TaxonomyCache.class);
 
-    Map<String, Map<String, String>> cacheById = new HashMap<>();
-    Map<String, Map<String, String>> cacheByName = new HashMap<>();
+    Map<String, Map<String, String>> cacheById = new ConcurrentHashMap<>();
+    Map<String, Map<String, String>> cacheByName = new ConcurrentHashMap<>();
 
+    /**
+     * connector listing the cache in background, lookups use their own connector
+     */
     DrupalConnector connector;
 
+    /**
+     * warmup in background by machine name, lookup waits for it
+     */
+    private final Map<String, Future<Void>> warmups = new ConcurrentHashMap<>();
+
+    /**
+     * names read on cache miss, by machineName and ID
+     */
+    private final SingleFlight<String> loads = new SingleFlight<>();
+
+    /**
+     * IDs found or created by name, by machineName and name
+     */
+    private final SingleFlight<String> creates = new SingleFlight<>();
+
+    /**
+     * TIDs not found or from other vocabulary, by machineName and ID
+     */
+    private final NegativeCache missing;
+
+    /**
+     * listed vocabularies stored for the next start, or null
+     */
+    private ReferenceSnapshot snapshot;
+
     public TaxonomyCache(DrupalConnector connector) throws IOException {
         this.connector = connector;
-        Set<String> proceed = new HashSet<>();
+        this.missing = new NegativeCache("taxonomyCache", connector.getConfiguration().getNegativeCacheTtl());
+        if (StringUtil.isNotEmpty(connector.getConfiguration().getReferenceSnapshotDirectory()) && connector.jsonApi == null) {
+            snapshot = new ReferenceSnapshot(connector.getConfiguration().getReferenceSnapshotDirectory(), connector.getConfiguration().getServiceAddress(), "taxonomy");
+        }
         for (String machineName : connector.getConfiguration().getUser2taxonomies().values()) {
-            if (proceed.contains(machineName)) {
+            if (cacheById.containsKey(machineName)) {
+                continue;
+            }
+            cacheById.put(machineName, new ConcurrentHashMap<String, String>());
+            cacheByName.put(machineName, new ConcurrentHashMap<String, String>());
+            if (connector.jsonApi != null) {
+                // names are included in JSON:API list responses, or read on demand
+                continue;
+            }
+            if (connector.getConfiguration().isLazyReference(machineName)) {
+                LOG.ok("taxonomyCache for machine name {0} is not listed, names are read on demand", machineName);
                 continue;
             }
-            else {
-                proceed.add(machineName);
-            }
-            int pageSize = connector.getConfiguration().getPageSize();
-            int page = 0;
-            while (true) {
-                String pageing = connector.processPaging(page, pageSize);
-                HttpGet request = new HttpGet(connector.getConfiguration().getServiceAddress() + connector.TAXONOMY_TERM + "?parameters[" + connector.VID + "]="
-                        + connector.getConfiguration().getTaxonomiesKeys().get(machineName) + pageing + "&fields=tid,name");
-                JSONArray taxonomies = connector.callRequest(request);
-
-                for (int i=0; i<taxonomies.length(); i++){
-                    JSONObject taxonomy = taxonomies.getJSONObject(i);
-                    String key = taxonomy.getString(connector.TID);
-                    String value = taxonomy.getString(connector.ATTR_NAME);
-                    putToCache(machineName, key, value);
+            if (connector.getConfiguration().getAsyncCacheWarmup()) {
+                startWarmup(machineName);
+            } else {
+                warmup(connector, machineName);
+            }
+        }
+    }
+
+    private void startWarmup(final String machineName) {
+        final DrupalConnector owner = connector;
+        warmups.put(machineName, owner.getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                warmup(owner, machineName);
+                return null;
+            }
+        }));
+    }
+
+    private void warmup(final DrupalConnector connector, final String machineName) throws IOException {
+        final Map<String, String> byId = cacheById.get(machineName);
+        final Map<String, String> byName = cacheByName.get(machineName);
+        String listUri = connector.getConfiguration().getServiceAddress() + connector.TAXONOMY_TERM + "?parameters[" + connector.VID + "]="
+                + connector.getConfiguration().getTaxonomiesKeys().get(machineName);
+        if (snapshot != null && isSnapshotFresh(connector, machineName, listUri)) {
+            for (Map.Entry<String, String> entry : snapshot.read(machineName).entrySet()) {
+                putToCache(machineName, byId, byName, entry.getKey(), entry.getValue());
+            }
+            LOG.ok("taxonomyCache for machine name {0} loaded from snapshot, count {1}", machineName, byId.size());
+            return;
+        }
+        final long[] maxTid = {0};
+        connector.findAllPages(listUri + "&fields=tid,name", connector.TID, new DrupalConnector.PageHandler() {
+            @Override
+            public boolean handle(JSONObject entity) {
+                if (cacheById == null || cacheById.get(machineName) != byId) {
+                    // cleared or restarted by other connector while warming up
+                    return false;
                 }
+                String key = entity.getString(connector.TID);
+                String value = entity.getString(connector.ATTR_NAME);
+                putToCache(machineName, byId, byName, key, value);
+                maxTid[0] = Math.max(maxTid[0], Long.parseLong(key));
+                return true;
+            }
 
-                if (taxonomies.length()==0 || taxonomies.length()<pageSize)
-                {
-                    break;
+            @Override
+            public boolean endPage() {
+                return cacheById == null || cacheById.get(machineName) != byId;
+            }
+        });
+        if (cacheById == null || cacheById.get(machineName) != byId) {
+            return;
+        }
+        LOG.ok("taxonomyCache for machine name "+machineName+" initialized, count {0}: values {1}", byId.size(), byId);
+        if (snapshot != null) {
+            snapshot.put(machineName, maxTid[0], byId);
+            snapshot.save();
+        }
+    }
+
+    /**
+     * Stored vocabulary is used, when it is not older than referenceSnapshotMaxAge and its max. term ID and count
+     * of terms are not changed, so created and deleted terms are found. Terms don't have changed timestamp, so renamed
+     * terms are found only after max. age.
+     */
+    private boolean isSnapshotFresh(DrupalConnector connector, String machineName, String listUri) throws IOException {
+        if (!snapshot.contains(machineName)) {
+            return false;
+        }
+        if (snapshot.isExpired(machineName, connector.getConfiguration().getReferenceSnapshotMaxAge())) {
+            LOG.ok("taxonomyCache snapshot of machine name {0} is older than max. age, listing it again", machineName);
+            return false;
+        }
+        return snapshot.getMarker(machineName) == getMaxTid(connector, listUri) && snapshot.getCount(machineName) == countTids(connector, listUri);
+    }
+
+    /**
+     * Max. term ID of vocabulary by reading at most one term ID.
+     */
+    private long getMaxTid(DrupalConnector connector, String listUri) throws IOException {
+        HttpGet request = new HttpGet(listUri + "&fields=tid&options[orderby][" + connector.TID + "]=desc" + connector.processPaging(0, 1));
+        JSONArray last = connector.callRequest(request);
+        return last.length() == 0 ? 0 : Long.parseLong(last.getJSONObject(0).getString(connector.TID));
+    }
+
+    /**
+     * Count of terms in vocabulary by listing only their IDs.
+     */
+    private int countTids(final DrupalConnector connector, String listUri) throws IOException {
+        final int[] count = {0};
+        connector.findAllPages(listUri + "&fields=tid", connector.TID, new DrupalConnector.PageHandler() {
+            @Override
+            public boolean handle(JSONObject entity) {
+                count[0]++;
+                return true;
+            }
+
+            @Override
+            public boolean endPage() {
+                return false;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Wait until machine name is listed, when it is warming up in background.
+     */
+    private void awaitWarmup(String machineName) {
+        while (true) {
+            Future<Void> warmup = warmups.get(machineName);
+            if (warmup == null) {
+                return;
+            }
+            if (!warmup.isDone()) {
+                LOG.ok("waiting for taxonomyCache warmup of machine name {0}", machineName);
+            }
+            try {
+                warmup.get();
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while waiting for taxonomyCache warmup: " + e.getMessage(), e);
+            } catch (CancellationException | ExecutionException e) {
+                if (warmups.get(machineName) != warmup) {
+                    // restarted by the next owner, wait for it
+                    continue;
                 }
-                page++;
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                if (cause instanceof RuntimeException && !(cause instanceof CancellationException)) {
+                    throw (RuntimeException) cause;
+                }
+                throw new ConnectorIOException("Error while initializing taxonomyCache: " + cause.getMessage(), cause);
+            }
+        }
+    }
+
+    /**
+     * Continue unfinished warmups by other connector sharing this cache, when the owner is disposed.
+     */
+    void changeOwner(DrupalConnector oldOwner, DrupalConnector newOwner) {
+        if (connector != oldOwner) {
+            return;
+        }
+        connector = newOwner;
+        for (String machineName : new ArrayList<>(warmups.keySet())) {
+            Future<Void> previous = warmups.get(machineName);
+            if (previous.isDone()) {
+                continue;
             }
-            LOG.ok("taxonomyCache for machine name "+machineName+" initialized, count {0}: values {1}", cacheById.get(machineName).size(), cacheById.get(machineName));
+            LOG.ok("restarting taxonomyCache warmup of machine name {0} by other connector", machineName);
+            cacheById.put(machineName, new ConcurrentHashMap<String, String>());
+            cacheByName.put(machineName, new ConcurrentHashMap<String, String>());
+            startWarmup(machineName);
+            previous.cancel(true);
         }
     }
 
     private void putToCache(String machineName, String key, String value) {
         if (cacheById.get(machineName) == null) {
-            cacheById.put(machineName, new HashMap<String, String>());
-            cacheByName.put(machineName, new HashMap<String, String>());
+            cacheById.put(machineName, new ConcurrentHashMap<String, String>());
+            cacheByName.put(machineName, new ConcurrentHashMap<String, String>());
         }
+        putToCache(machineName, cacheById.get(machineName), cacheByName.get(machineName), key, value);
+    }
+
+    private void putToCache(String machineName, Map<String, String> byId, Map<String, String> byName, String key, String value) {
 
-        if (cacheById.get(machineName).containsKey(key)) {
-            throw new InvalidAttributeValueException("TID '"+key+"' (value: '"+value+"') for machine name '"+machineName+"' already exists in taxonomyCache" + cacheById.get(machineName));
+        // the same term can be read again, by concurrent load or from snapshot and listing
+        String existing = byName.get(value);
+        if (existing != null && !existing.equals(key)) {
+            throw new InvalidAttributeValueException("Value '"+value+"' (TID: "+key+") for machine name '"+machineName+"' already exists in taxonomyCache: " + byName);
         }
-        else {
-            cacheById.get(machineName).put(key, value);
+
+        String previous = byId.put(key, value);
+        if (previous != null && !previous.equals(value)) {
+            // renamed term
+            byName.remove(previous, key);
+        }
+        if (StringUtil.isNotEmpty(value)) {
+            byName.put(value, key);
         }
+    }
 
-        if (cacheByName.get(machineName).containsKey(value)) {
-            throw new InvalidAttributeValueException("Value '"+value+"' (TID: "+key+") for machine name '"+machineName+"' already exists in taxonomyCache: " + cacheByName.get(machineName));
+    /**
+     * Put term included in other response, when his vocabulary is cached.
+     */
+    public void putIncluded(String machineName, String id, String value) {
+        awaitWarmup(machineName);
+        if (cacheById == null || cacheById.get(machineName) == null || value == null) {
+            return;
         }
-        else if (StringUtil.isNotEmpty(value)){
-            cacheByName.get(machineName).put(value, key);
+        cacheById.get(machineName).put(id, value);
+        if (StringUtil.isNotEmpty(value)) {
+            cacheByName.get(machineName).put(value, id);
         }
+        missing.remove(machineName + "/" + id);
     }
 
     public void clear() {
+        LOG.ok("clearing {0}", missing);
+        missing.clear();
+        for (Future<Void> warmup : warmups.values()) {
+            warmup.cancel(true);
+        }
+        warmups.clear();
         if (cacheById != null) {
             cacheById.clear();
             cacheById = null;
@@ -95,11 +294,31 @@ public class TaxonomyCache {
         this.connector = null;
     }
 
-    public String getName(String machineName, String id) {
+    public String getName(final DrupalConnector connector, final String machineName, final String id) {
+        awaitWarmup(machineName);
         LOG.ok("getName for machine name {0} and id {1}", machineName, id);
+        if (cacheById.get(machineName).containsKey(id)) {
+            return cacheById.get(machineName).get(id);
+        }
+        if (missing.get(machineName + "/" + id, connector.getConfiguration().getIgnoreTypeMismatch()) != null) {
+            return null;
+        }
+        return loads.run(machineName + "/" + id, new Callable<String>() {
+            @Override
+            public String call() {
+                return loadName(connector, machineName, id);
+            }
+        });
+    }
+
+    private String loadName(DrupalConnector connector, String machineName, String id) {
+        // loaded by other thread meanwhile
         if (!cacheById.get(machineName).containsKey(id)) {
             // read it and put to taxonomyCache
 
+            if (connector.jsonApi != null) {
+                return readName(connector, machineName, id);
+            }
             HttpGet request = new HttpGet(connector.getConfiguration().getServiceAddress() + connector.TAXONOMY_TERM + "/" + id);
             JSONObject taxonomy = null;
             try {
@@ -108,6 +327,7 @@ public class TaxonomyCache {
                 if (ce.getMessage().contains("HTTP error 500 Internal Server Error"))
                 {
                     LOG.warn(ce, "probably already deleted TID, returning NULL as his value");
+                    missing.put(machineName + "/" + id, null);
                     return null;
                 }
                 else {
@@ -124,6 +344,7 @@ public class TaxonomyCache {
             if (!machineName.equals(machineNameFromResource)) {
                 if (connector.getConfiguration().getIgnoreTypeMismatch()) {
                     LOG.warn("Expected \"+machineName+\", but get \"+machineNameFromResource+\" for TID:" + id + " (" + value + "), returning NULL");
+                    missing.putMismatch(machineName + "/" + id);
                     return null;
                 } else {
                     throw new InvalidAttributeValueException("Expected " + machineName + ", but get " + machineNameFromResource + " for TID:" + id + " (" + value + ")");
@@ -132,17 +353,56 @@ public class TaxonomyCache {
 
             cacheById.get(machineName).put(id, value);
             cacheByName.get(machineName).put(value, id);
+            missing.remove(machineName + "/" + id);
         }
 
         return cacheById.get(machineName).get(id);
     }
 
-    public String getIdOrCreate(String machineName, String fieldValue) {
+    private String readName(DrupalConnector connector, String machineName, String id) {
+        try {
+            String value = connector.jsonApi.readName(JsonApiBackend.TAXONOMY_TERM, machineName, id);
+            if (value == null) {
+                LOG.warn("TID {0} not found in machine name {1}, returning NULL", id, machineName);
+                missing.put(machineName + "/" + id, null);
+                return null;
+            }
+            putIncluded(machineName, id, value);
+            return value;
+        } catch (IOException e) {
+            throw new ConnectorIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return not found and mismatched TIDs with hit counters
+     */
+    public NegativeCache getMissing() {
+        return missing;
+    }
+
+    public String getIdOrCreate(final DrupalConnector connector, final String machineName, final String fieldValue) {
+        awaitWarmup(machineName);
         LOG.ok("getIdOrCreate for machine name {0} and value {1}", machineName, fieldValue);
         String id = cacheByName.get(machineName).get(fieldValue);
         if (StringUtil.isNotEmpty(id)) {
             return id; // exists & is OK
         }
+        // only one thread searches and creates the same name
+        return creates.run(machineName + "/" + fieldValue, new Callable<String>() {
+            @Override
+            public String call() {
+                return findOrCreateId(connector, machineName, fieldValue);
+            }
+        });
+    }
+
+    private String findOrCreateId(DrupalConnector connector, String machineName, String fieldValue) {
+        // found or created by other thread meanwhile
+        String id = cacheByName.get(machineName).get(fieldValue);
+        if (StringUtil.isNotEmpty(id)) {
+            return id; // exists & is OK
+        }
         else {
             try {
                 // check if not created before
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal local stand-in of Drupal Services REST server for tests. Listens on free local port, every test registers
+ * only own resources, which answer by JSON. Requests are handled concurrently, as connector can send them in parallel.
+ */
+public class DrupalStubServer {
+
+    private static final String ENDPOINT = "/rest";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    /**
+     * Stand-in of one Services resource.
+     */
+    public interface Resource {
+        /**
+         * @param query decoded query parameters, empty when request has no query
+         * @return JSON array or object, which is sent as response body
+         */
+        Object handle(HttpExchange exchange, Map<String, String> query) throws IOException;
+    }
+
+    public DrupalStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @param path resource path with endpoint, for example '/rest/user', also handles all paths below it
+     */
+    public DrupalStubServer addResource(String path, final Resource resource) {
+        return addHandler(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Object response = resource.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+                respond(exchange, String.valueOf(response));
+            }
+        });
+    }
+
+    /**
+     * Handler writing the response by itself.
+     */
+    public DrupalStubServer addHandler(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return service address of the default '/rest' endpoint
+     */
+    public String getServiceAddress() {
+        return getServiceAddress(ENDPOINT);
+    }
+
+    public String getServiceAddress(String endpoint) {
+        return "http://localhost:" + getPort() + endpoint;
+    }
+
+    /**
+     * @return configuration of connector to the default endpoint, without test of connection
+     */
+    public DrupalConfiguration createConfiguration() {
+        DrupalConfiguration conf = new DrupalConfiguration();
+        conf.setServiceAddress(getServiceAddress());
+        conf.setSkipTestConnection(true);
+        return conf;
+    }
+
+    public static DrupalConnector createConnector(DrupalConfiguration conf) {
+        DrupalConnector conn = new DrupalConnector();
+        conn.init(conf);
+        return conn;
+    }
+
+    public static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            String[] keyValue = parameter.split("=", 2);
+            query.put(URLDecoder.decode(keyValue[0], "UTF-8"), keyValue.length > 1 ? URLDecoder.decode(keyValue[1], "UTF-8") : "");
+        }
+        return query;
+    }
+
+    public static void respond(HttpExchange exchange, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+}
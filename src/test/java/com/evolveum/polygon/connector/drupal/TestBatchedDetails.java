@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Reading term details (custom fields) of whole page by one list call against minimal local stand-in of Services
+ * taxonomy_term resource, which index may or may not return custom fields and limits its page size.
+ */
+public class TestBatchedDetails {
+
+    private static final int TERM_COUNT = 12;
+    private static final int PAGE_SIZE = 5;
+    private static final String FIELD = "field_code";
+
+    private static DrupalStubServer server;
+    private static final AtomicInteger batchRequests = new AtomicInteger();
+    private static final AtomicInteger detailRequests = new AtomicInteger();
+    /**
+     * index returns custom fields, as with services_entity module
+     */
+    private static volatile boolean indexWithFields;
+    /**
+     * services_taxonomy_term_index_page_size
+     */
+    private static volatile int indexPageSizeLimit;
+
+    ObjectClass termObjectClass = new ObjectClass(DrupalConnector.OC_TERM_Prefix + "positions");
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/taxonomy_term", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (!path.equals("/rest/taxonomy_term")) {
+                    detailRequests.incrementAndGet();
+                    return term(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1)), true);
+                }
+                JSONArray terms = new JSONArray();
+                if (query.containsKey("parameters[tid]")) {
+                    batchRequests.incrementAndGet();
+                    int limit = Math.min(Integer.parseInt(query.get("pagesize")), indexPageSizeLimit);
+                    for (String tid : query.get("parameters[tid]").split(",")) {
+                        if (terms.length() < limit) {
+                            terms.put(term(Integer.parseInt(tid), indexWithFields));
+                        }
+                    }
+                    return terms;
+                }
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                for (int tid = 1 + offset; tid <= TERM_COUNT && terms.length() < pageSize; tid++) {
+                    terms.put(term(tid, false));
+                }
+                return terms;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    @BeforeMethod
+    public void reset() {
+        batchRequests.set(0);
+        detailRequests.set(0);
+    }
+
+    private static JSONObject term(int tid, boolean withFields) {
+        JSONObject term = new JSONObject();
+        term.put("tid", String.valueOf(tid));
+        term.put("vid", "1");
+        term.put("name", "term" + tid);
+        if (withFields) {
+            JSONObject value = new JSONObject();
+            value.put("value", "code" + tid);
+            term.put(FIELD, new JSONObject().put("und", new JSONArray().put(value)));
+        }
+        return term;
+    }
+
+    private Map<String, String> listAll() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+        conf.setTaxonomies(new String[]{"positions:1=" + FIELD + ":value"});
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        final Map<String, String> codes = new LinkedHashMap<>();
+        try {
+            conn.executeQuery(termObjectClass, null, new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    codes.put(connectorObject.getUid().getUidValue(), (String) connectorObject.getAttributeByName(FIELD).getValue().get(0));
+                    return true;
+                }
+            }, null);
+        } finally {
+            conn.dispose();
+        }
+        return codes;
+    }
+
+    private static Map<String, String> expectedCodes() {
+        Map<String, String> codes = new LinkedHashMap<>();
+        for (int tid = 1; tid <= TERM_COUNT; tid++) {
+            codes.put(String.valueOf(tid), "code" + tid);
+        }
+        return codes;
+    }
+
+    @Test
+    public void testIndexWithoutFields() {
+        indexWithFields = false;
+        indexPageSizeLimit = 100;
+        assertEquals(listAll(), expectedCodes());
+        // batched call is not sent again after the first page
+        assertEquals(batchRequests.get(), 1);
+        assertEquals(detailRequests.get(), TERM_COUNT);
+    }
+
+    @Test
+    public void testIndexOverPageLimit() {
+        indexWithFields = true;
+        indexPageSizeLimit = 2;
+        assertEquals(listAll(), expectedCodes());
+        // the rest of page is asked again: 2 + 2 + 1, 2 + 2 + 1 and 2
+        assertEquals(batchRequests.get(), 7);
+        assertEquals(detailRequests.get(), 0);
+    }
+}
@@ -546,7 +546,7 @@ public class TestClient {
 
     @Test
     public void testNodeCache() {
-        conn.nodeCache.getIdOrCreate("department", "IT Services");
+        conn.nodeCache.getIdOrCreate(conn, "department", "IT Services");
     }
 
 
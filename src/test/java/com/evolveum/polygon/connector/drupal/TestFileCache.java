@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.common.Base64;
+import org.identityconnectors.framework.common.objects.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Memory and directory eviction of file cache, and skipping of unchanged user file on update against minimal local
+ * stand-in of Services user and file resources.
+ */
+public class TestFileCache {
+
+    private static final byte[] AVATAR = "avatar content".getBytes(StandardCharsets.UTF_8);
+
+    private static DrupalStubServer server;
+    private static final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+                JSONObject user = new JSONObject();
+                user.put("uid", "5");
+                user.put("name", "user5");
+                JSONObject fid = new JSONObject();
+                fid.put("fid", "7");
+                JSONArray und = new JSONArray();
+                und.put(fid);
+                JSONObject avatar = new JSONObject();
+                avatar.put("und", und);
+                user.put("field_avatar", avatar);
+                return user;
+            }
+        });
+        server.addResource("/rest/file", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) {
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+                JSONObject file = new JSONObject();
+                file.put("fid", "POST".equals(exchange.getRequestMethod()) ? "8" : "7");
+                file.put("file", Base64.encode(AVATAR));
+                return file;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) 'x');
+        return content;
+    }
+
+    private static File newDirectory() throws IOException {
+        File directory = Files.createTempDirectory("drupal-file-cache").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testMemoryEviction() {
+        FileCache cache = new FileCache(10, null, 0, 10);
+        cache.put("1", content(4));
+        cache.put("2", content(4));
+        // 1 is the most recently used now
+        assertNotNull(cache.get("1"));
+        cache.put("3", content(4));
+
+        assertNotNull(cache.get("1"));
+        assertNull(cache.get("2"));
+        assertNotNull(cache.get("3"));
+        assertEquals(cache.getEvictions(), 1);
+    }
+
+    @Test
+    public void testInvalidFidIsNotCached() {
+        FileCache cache = new FileCache(10, null, 0, 10);
+        cache.put("../1", content(4));
+        assertNull(cache.get("../1"));
+    }
+
+    @Test
+    public void testSpillToDirectory() throws IOException {
+        File directory = newDirectory();
+        FileCache cache = new FileCache(4, directory.getPath(), 100, 10);
+        cache.put("1", content(4));
+        cache.put("2", content(4));
+
+        assertTrue(new File(directory, "1.fid").isFile());
+        assertEquals(cache.getSpilledSize(), 4);
+        assertEquals(cache.get("1"), content(4));
+
+        // spilled files are used by the next connector instance
+        cache.clear();
+        FileCache nextCache = new FileCache(4, directory.getPath(), 100, 10);
+        assertEquals(nextCache.get("1"), content(4));
+    }
+
+    @Test
+    public void testDirectorySizeIsSharedByInstances() throws IOException {
+        File directory = newDirectory();
+        FileCache cache1 = new FileCache(1, directory.getPath(), 10, 10);
+        FileCache cache2 = new FileCache(1, directory.getPath(), 10, 10);
+        // content over memory size is spilled right away
+        cache1.put("1", content(4));
+        cache1.put("2", content(4));
+        cache2.put("3", content(4));
+
+        // 12 bytes spilled by both instances, so the oldest 1 was deleted
+        assertEquals(cache1.getSpilledSize(), 8);
+        assertEquals(cache2.getSpilledSize(), 8);
+        assertFalse(new File(directory, "1.fid").exists());
+        assertTrue(new File(directory, "2.fid").isFile());
+        assertTrue(new File(directory, "3.fid").isFile());
+    }
+
+    @Test
+    public void testDigestsAreBounded() {
+        FileCache cache = new FileCache(10, null, 0, 2);
+        cache.putDigest("1", "field_avatar", new FileCache.FileDigest("11", FileCache.digest(content(1))));
+        cache.putDigest("2", "field_avatar", new FileCache.FileDigest("12", FileCache.digest(content(2))));
+        // 1 is the most recently used now
+        assertNotNull(cache.getDigest("1", "field_avatar"));
+        cache.putDigest("3", "field_avatar", new FileCache.FileDigest("13", FileCache.digest(content(3))));
+
+        assertEquals(cache.getDigestCount(), 2);
+        assertNotNull(cache.getDigest("1", "field_avatar"));
+        assertNull(cache.getDigest("2", "field_avatar"));
+        assertTrue(cache.getDigest("3", "field_avatar").hasSameContent(FileCache.digest(content(3))));
+
+        // user references other file now
+        cache.checkDigest("3", "field_avatar", "14");
+        assertNull(cache.getDigest("3", "field_avatar"));
+    }
+
+    @Test
+    public void testUnchangedFileIsNotUploaded() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setUserFields(new String[]{"field_avatar:fid"});
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        try {
+            Set<Attribute> attributes = new HashSet<>();
+            attributes.add(AttributeBuilder.build("field_avatar" + DrupalConnector.TRANSFORMED_POSTFIX, AVATAR));
+
+            // the first update compares content with file in Drupal
+            requests.clear();
+            conn.update(accountObjectClass, new Uid("5"), attributes, null);
+            assertEquals(requests, Arrays.asList("GET /rest/user/5", "GET /rest/file/7", "PUT /rest/user/5"));
+
+            // the next update knows digest of file
+            requests.clear();
+            conn.update(accountObjectClass, new Uid("5"), attributes, null);
+            assertEquals(requests, Arrays.asList("PUT /rest/user/5"));
+
+            // changed content is uploaded as new file
+            requests.clear();
+            attributes.clear();
+            attributes.add(AttributeBuilder.build("field_avatar" + DrupalConnector.TRANSFORMED_POSTFIX, content(3)));
+            conn.update(accountObjectClass, new Uid("5"), attributes, null);
+            assertEquals(requests, Arrays.asList("GET /rest/user/5", "POST /rest/file", "PUT /rest/user/5"));
+        } finally {
+            conn.dispose();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.*;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Translation of search filters to Services list parameters, and search of several values against minimal local
+ * stand-in of Services user index resource, which don't filter on comma separated values.
+ */
+public class TestFilterTranslator {
+
+    private static final int USER_COUNT = 25;
+    private static final int PAGE_SIZE = 10;
+    private static final List<String> USER_COLUMNS = Arrays.asList("uid", "name", "mail", "status", "created");
+
+    private static DrupalStubServer server;
+    private static final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                requests.add(query);
+
+                // old Services ignores parameter with comma separated values and returns all users
+                String uid = query.get("parameters[uid]");
+                // Services default page size is 20
+                int pageSize = query.containsKey("pagesize") ? Integer.parseInt(query.get("pagesize")) : 20;
+                int offset = query.containsKey("page") ? Integer.parseInt(query.get("page")) * pageSize : 0;
+                JSONArray users = new JSONArray();
+                for (int i = 1 + offset; i <= USER_COUNT && users.length() < pageSize; i++) {
+                    if (uid != null && !uid.contains(",") && !uid.equals(String.valueOf(i))) {
+                        continue;
+                    }
+                    JSONObject user = new JSONObject();
+                    user.put("uid", String.valueOf(i));
+                    user.put("name", "user" + i);
+                    users.put(user);
+                }
+
+                return users;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    private List<DrupalFilter> translate(Filter filter) {
+        return new DrupalFilterTranslator("uid", "name", USER_COLUMNS).translate(filter);
+    }
+
+    private static Filter equalTo(String name, Object value) {
+        return FilterBuilder.equalTo(AttributeBuilder.build(name, value));
+    }
+
+    @Test
+    public void testOrOfTheSameAttributeIsMerged() {
+        Filter filter = FilterBuilder.or(FilterBuilder.or(equalTo(Uid.NAME, "1"), equalTo(Uid.NAME, "2")), equalTo(Uid.NAME, "1"));
+        List<DrupalFilter> filters = translate(filter);
+
+        assertEquals(filters.size(), 1);
+        assertEquals(filters.get(0).byUids, Arrays.asList("1", "2"));
+        assertNull(filters.get(0).byParameters);
+
+        filters = translate(FilterBuilder.or(equalTo(Name.NAME, "user1"), equalTo(Name.NAME, "user2")));
+        assertEquals(filters.size(), 1);
+        assertEquals(filters.get(0).byNames, Arrays.asList("user1", "user2"));
+    }
+
+    @Test
+    public void testOrOfOtherAttributesIsNotMerged() {
+        List<DrupalFilter> filters = translate(FilterBuilder.or(equalTo(Uid.NAME, "1"), equalTo(Name.NAME, "user2")));
+
+        // searched by separate queries
+        assertEquals(filters.size(), 2);
+        assertEquals(filters.get(0).byUid, "1");
+        assertNull(filters.get(0).byNames);
+        assertEquals(filters.get(1).byName, "user2");
+        assertNull(filters.get(1).byUids);
+    }
+
+    @Test
+    public void testAndOfPushableAndNotPushable() {
+        // custom field is not in listed table, framework evaluates it on returned objects
+        Filter filter = FilterBuilder.and(FilterBuilder.and(equalTo("created", "100"), equalTo("field_skype", "user1")),
+                equalTo(Name.NAME, "user1"));
+        List<DrupalFilter> filters = translate(filter);
+
+        assertEquals(filters.size(), 1);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("created", "100");
+        expected.put("name", "user1");
+        assertEquals(filters.get(0).byParameters, expected);
+        assertFalse(filters.get(0).isMultiValued());
+
+        // OR of values stays multi valued with other conditions as parameters
+        filters = translate(FilterBuilder.and(FilterBuilder.or(equalTo(Uid.NAME, "1"), equalTo(Uid.NAME, "2")), equalTo("created", "100")));
+        assertEquals(filters.size(), 1);
+        assertEquals(filters.get(0).byUids, Arrays.asList("1", "2"));
+        assertEquals(filters.get(0).byParameters, Collections.singletonMap("created", "100"));
+
+        // only not pushable condition, all objects are listed
+        assertEquals(translate(equalTo("field_skype", "user1")), Collections.emptyList());
+    }
+
+    @Test
+    public void testEnableIsTranslatedToStatus() {
+        List<DrupalFilter> filters = translate(equalTo(OperationalAttributes.ENABLE_NAME, true));
+        assertEquals(filters.size(), 1);
+        assertEquals(filters.get(0).byParameters, Collections.singletonMap("status", "1"));
+
+        filters = translate(FilterBuilder.and(equalTo(OperationalAttributes.ENABLE_NAME, false), equalTo(Name.NAME, "user1")));
+        assertEquals(filters.size(), 1);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("status", "0");
+        expected.put("name", "user1");
+        assertEquals(filters.get(0).byParameters, expected);
+
+        // taxonomy terms don't have status
+        DrupalFilterTranslator termTranslator = new DrupalFilterTranslator("tid", "name", Arrays.asList("tid", "vid", "name", "description", "format", "weight"));
+        assertEquals(termTranslator.translate(equalTo(OperationalAttributes.ENABLE_NAME, true)), Collections.emptyList());
+    }
+
+    @Test
+    public void testUnexpectedResultsStopBatchedSearch() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+
+        requests.clear();
+        final List<String> uids = new ArrayList<>();
+        try {
+            DrupalFilter query = translate(FilterBuilder.or(equalTo(Uid.NAME, "12"), equalTo(Uid.NAME, "15"))).get(0);
+            conn.executeQuery(accountObjectClass, query, new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    uids.add(connectorObject.getUid().getUidValue());
+                    return true;
+                }
+            }, null);
+        } finally {
+            conn.dispose();
+        }
+
+        assertEquals(uids, Arrays.asList("12", "15"));
+        // only the first page of ignored batch, then value by value
+        Set<String> searched = new HashSet<>();
+        for (Map<String, String> request : requests) {
+            searched.add(request.get("parameters[uid]") + "/" + request.get("page"));
+        }
+        assertEquals(searched, new HashSet<>(Arrays.asList("12,15/0", "12/null", "15/null")));
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.identityconnectors.framework.common.objects.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Listing of users with offset and keyset paging against minimal local stand-in of Services user index resource.
+ */
+public class TestKeysetPaging {
+
+    private static final int USER_COUNT = 25;
+    private static final int PAGE_SIZE = 10;
+
+    private static DrupalStubServer server;
+    private static final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+    /**
+     * the first user was handled, while the rest of page was not sent yet
+     */
+    private static final CountDownLatch firstUserHandled = new CountDownLatch(1);
+    private static volatile boolean streamed = false;
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                requests.add(query);
+
+                // uid > X, ordered by uid, with page offset
+                int fromUid = 0;
+                if (query.containsKey("parameters[uid]")) {
+                    fromUid = Integer.parseInt(query.get("parameters[uid]"));
+                }
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                JSONArray users = new JSONArray();
+                for (int uid = fromUid + 1 + offset; uid <= USER_COUNT && users.length() < pageSize; uid++) {
+                    JSONObject user = new JSONObject();
+                    user.put("uid", String.valueOf(uid));
+                    user.put("name", "user" + uid);
+                    users.put(user);
+                }
+
+                return users;
+            }
+        });
+        // sends the rest of page only after the first user is handled
+        server.addHandler("/stream/user", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream os = exchange.getResponseBody();
+                os.write("[{\"uid\":\"1\",\"name\":\"user1\"},".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                try {
+                    streamed = firstUserHandled.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                os.write("{\"uid\":\"2\",\"name\":\"user2\"}]".getBytes(StandardCharsets.UTF_8));
+                os.close();
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    private DrupalConnector createConnector(boolean keysetPaging) {
+        return createConnector(keysetPaging, false);
+    }
+
+    private DrupalConnector createConnector(boolean keysetPaging, boolean countRemainingPagedResults) {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+        conf.setKeysetPaging(keysetPaging);
+        conf.setCountRemainingPagedResults(countRemainingPagedResults);
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        return conn;
+    }
+
+    private List<String> listAllUids(DrupalConnector conn) {
+        final List<String> uids = new ArrayList<>();
+        ResultsHandler handler = new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                uids.add(connectorObject.getUid().getUidValue());
+                return true;
+            }
+        };
+        conn.executeQuery(accountObjectClass, null, handler, null);
+        return uids;
+    }
+
+    private List<String> expectedUids() {
+        List<String> uids = new ArrayList<>();
+        for (int uid = 1; uid <= USER_COUNT; uid++) {
+            uids.add(String.valueOf(uid));
+        }
+        return uids;
+    }
+
+    @Test
+    public void testOffsetPaging() {
+        requests.clear();
+        DrupalConnector conn = createConnector(false);
+        try {
+            assertEquals(listAllUids(conn), expectedUids());
+        } finally {
+            conn.dispose();
+        }
+
+        assertEquals(requests.size(), 3);
+        for (int i = 0; i < requests.size(); i++) {
+            assertEquals(requests.get(i).get("page"), String.valueOf(i));
+        }
+    }
+
+    @Test
+    public void testKeysetPaging() {
+        requests.clear();
+        DrupalConnector conn = createConnector(true);
+        try {
+            assertEquals(listAllUids(conn), expectedUids());
+        } finally {
+            conn.dispose();
+        }
+
+        assertEquals(requests.size(), 3);
+        String[] expectedFromUids = {null, "10", "20"};
+        for (int i = 0; i < requests.size(); i++) {
+            Map<String, String> query = requests.get(i);
+            // every page is the first page after the last seen uid
+            assertEquals(query.get("page"), "0");
+            assertEquals(query.get("options[orderby][uid]"), "asc");
+            assertEquals(query.get("parameters[uid]"), expectedFromUids[i]);
+            if (i > 0) {
+                assertEquals(query.get("options[parameters_op][uid]"), ">");
+            }
+        }
+    }
+
+    @Test
+    public void testPagedSearchCountsOnce() {
+        for (boolean keysetPaging : new boolean[]{false, true}) {
+            requests.clear();
+            DrupalConnector conn = createConnector(keysetPaging, true);
+            final List<String> uids = new ArrayList<>();
+            List<Integer> remaining = new ArrayList<>();
+            try {
+                String cookie = null;
+                do {
+                    final SearchResult[] result = {null};
+                    OperationOptions options = new OperationOptionsBuilder().setPageSize(PAGE_SIZE).setPagedResultsCookie(cookie).build();
+                    conn.executeQuery(accountObjectClass, null, new SearchResultsHandler() {
+                        @Override
+                        public boolean handle(ConnectorObject connectorObject) {
+                            uids.add(connectorObject.getUid().getUidValue());
+                            return true;
+                        }
+
+                        @Override
+                        public void handleResult(SearchResult searchResult) {
+                            result[0] = searchResult;
+                        }
+                    }, options);
+                    cookie = result[0].getPagedResultsCookie();
+                    remaining.add(result[0].getRemainingPagedResults());
+                } while (cookie != null);
+            } finally {
+                conn.dispose();
+            }
+
+            assertEquals(uids, expectedUids());
+            assertEquals(remaining, Arrays.asList(15, 5, 0));
+            // IDs are listed only on the first page
+            int countRequests = 0;
+            for (Map<String, String> query : requests) {
+                if ("uid".equals(query.get("fields"))) {
+                    countRequests++;
+                }
+            }
+            assertEquals(countRequests, 3);
+            assertEquals(requests.size(), 3 + 3);
+        }
+    }
+
+    @Test
+    public void testPagedSearchFromOffset() {
+        requests.clear();
+        DrupalConnector conn = createConnector(false);
+        final List<String> uids = new ArrayList<>();
+        List<Integer> remaining = new ArrayList<>();
+        try {
+            String cookie = null;
+            do {
+                final SearchResult[] result = {null};
+                OperationOptionsBuilder options = new OperationOptionsBuilder().setPageSize(PAGE_SIZE).setPagedResultsCookie(cookie);
+                if (cookie == null) {
+                    options.setPagedResultsOffset(6);
+                }
+                conn.executeQuery(accountObjectClass, null, new SearchResultsHandler() {
+                    @Override
+                    public boolean handle(ConnectorObject connectorObject) {
+                        uids.add(connectorObject.getUid().getUidValue());
+                        return true;
+                    }
+
+                    @Override
+                    public void handleResult(SearchResult searchResult) {
+                        result[0] = searchResult;
+                    }
+                }, options.build());
+                cookie = result[0].getPagedResultsCookie();
+                remaining.add(result[0].getRemainingPagedResults());
+            } while (cookie != null);
+        } finally {
+            conn.dispose();
+        }
+
+        // users before the offset are skipped, the rest of page after search page is not returned
+        assertEquals(uids, expectedUids().subList(5, USER_COUNT));
+        assertEquals(remaining, Arrays.asList(-1, 0));
+        assertEquals(requests.size(), 4);
+    }
+
+    @Test
+    public void testRecordsHandledWhileParsed() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setServiceAddress(server.getServiceAddress("/stream"));
+        conf.setPageSize(PAGE_SIZE);
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        final List<String> uids = new ArrayList<>();
+        try {
+            conn.executeQuery(accountObjectClass, null, new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    uids.add(connectorObject.getUid().getUidValue());
+                    firstUserHandled.countDown();
+                    return true;
+                }
+            }, null);
+        } finally {
+            conn.dispose();
+        }
+
+        assertEquals(uids, Arrays.asList("1", "2"));
+        assertTrue(streamed, "the first user was handled before the whole page was received");
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Live sync of users by keyset on (created, uid) against minimal local stand-in of Services user index resource,
+ * with more users of the same timestamp than one page and user changed during sync.
+ */
+public class TestKeysetSync {
+
+    private static final int PAGE_SIZE = 3;
+
+    private static DrupalStubServer server;
+    /**
+     * created timestamp by uid
+     */
+    private static final Map<Integer, Long> users = Collections.synchronizedMap(new TreeMap<Integer, Long>());
+    private static final List<Map<String, String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                requests.add(query);
+
+                List<long[]> matching = new ArrayList<>();
+                synchronized (users) {
+                    for (Map.Entry<Integer, Long> user : users.entrySet()) {
+                        if (matches(query, "created", user.getValue()) && matches(query, "uid", user.getKey())) {
+                            matching.add(new long[]{user.getValue(), user.getKey()});
+                        }
+                    }
+                }
+                final boolean byCreated = query.containsKey("options[orderby][created]");
+                Collections.sort(matching, new Comparator<long[]>() {
+                    @Override
+                    public int compare(long[] u1, long[] u2) {
+                        int result = byCreated ? Long.compare(u1[0], u2[0]) : 0;
+                        return result != 0 ? result : Long.compare(u1[1], u2[1]);
+                    }
+                });
+
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                JSONArray page = new JSONArray();
+                for (int i = offset; i < matching.size() && page.length() < pageSize; i++) {
+                    JSONObject user = new JSONObject();
+                    user.put("uid", String.valueOf(matching.get(i)[1]));
+                    user.put("name", "user" + matching.get(i)[1]);
+                    user.put("created", String.valueOf(matching.get(i)[0]));
+                    page.put(user);
+                }
+
+                return page;
+            }
+        });
+    }
+
+    private static boolean matches(Map<String, String> query, String column, long value) {
+        String parameter = query.get("parameters[" + column + "]");
+        if (parameter == null) {
+            return true;
+        }
+        long expected = Long.parseLong(parameter);
+        String op = query.get("options[parameters_op][" + column + "]");
+        if (op == null || "=".equals(op)) {
+            return value == expected;
+        } else if (">".equals(op)) {
+            return value > expected;
+        } else if (">=".equals(op)) {
+            return value >= expected;
+        }
+        throw new IllegalArgumentException("unsupported operator " + op);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    @BeforeMethod
+    public void resetUsers() {
+        requests.clear();
+        users.clear();
+        // more users created in the same second than one page
+        for (int uid = 1; uid <= 8; uid++) {
+            users.put(uid, 100L);
+        }
+        for (int uid = 9; uid <= 12; uid++) {
+            users.put(uid, 200L);
+        }
+    }
+
+    private DrupalConnector createConnector() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        return conn;
+    }
+
+    private List<String> sync(SyncToken token, final List<String> tokens) {
+        final List<String> uids = new ArrayList<>();
+        DrupalConnector conn = createConnector();
+        try {
+            conn.sync(accountObjectClass, token, new SyncResultsHandler() {
+                @Override
+                public boolean handle(SyncDelta delta) {
+                    uids.add(delta.getUid().getUidValue());
+                    tokens.add(String.valueOf(delta.getToken().getValue()));
+                    if (uids.size() == 1) {
+                        // user 1 is "changed" while sync reads next pages
+                        users.put(1, 300L);
+                    }
+                    return true;
+                }
+            }, null);
+        } finally {
+            conn.dispose();
+        }
+        return uids;
+    }
+
+    @Test
+    public void testSyncFromBeginning() {
+        List<String> tokens = new ArrayList<>();
+        // changed user is returned again, no other user is skipped
+        assertEquals(sync(null, tokens), Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "1"));
+        assertEquals(tokens.get(7), "100:8");
+        assertEquals(tokens.get(12), "300:1");
+
+        // every page is the first page after the last returned user
+        for (Map<String, String> query : requests) {
+            assertEquals(query.get("page"), "0");
+        }
+    }
+
+    @Test
+    public void testSyncFromToken() {
+        List<String> tokens = new ArrayList<>();
+        assertEquals(sync(new SyncToken("100:5"), tokens), Arrays.asList("6", "7", "8", "9", "10", "11", "12", "1"));
+
+        // the rest of users with the same timestamp are read by uid first
+        Map<String, String> first = requests.get(0);
+        assertEquals(first.get("parameters[created]"), "100");
+        assertEquals(first.get("parameters[uid]"), "5");
+        assertEquals(first.get("options[parameters_op][uid]"), ">");
+        Map<String, String> last = requests.get(requests.size() - 1);
+        assertEquals(last.get("options[parameters_op][created]"), ">");
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * Expiration of not found and mismatched IDs and their removal, when they are found later.
+ */
+public class TestNegativeCache {
+
+    @Test
+    public void testEntryExpires() throws InterruptedException {
+        NegativeCache cache = new NegativeCache("test", 200);
+        cache.put("tags/1", "TID 1 not found");
+        cache.put("tags/2", null);
+
+        NegativeCache.Entry entry = cache.get("tags/1");
+        assertNotNull(entry);
+        assertEquals(entry.getError(), "TID 1 not found");
+        assertNotNull(cache.get("tags/2"));
+        assertNull(cache.get("tags/3"));
+        assertEquals(cache.getHits(), 2);
+
+        Thread.sleep(300);
+        assertNull(cache.get("tags/1"));
+        assertNull(cache.get("tags/2"));
+        assertEquals(cache.getExpirations(), 2);
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        NegativeCache cache = new NegativeCache("test", 0);
+        cache.put("tags/1", null);
+        assertNull(cache.get("tags/1"));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testFoundIdIsRemoved() {
+        NegativeCache cache = new NegativeCache("test", 60000);
+        cache.put("tags/1", null);
+        cache.putMismatch("tags/2");
+
+        // put to cache after successful read or included in other response
+        cache.remove("tags/1");
+        cache.remove("tags/2");
+        assertNull(cache.get("tags/1", true));
+        assertNull(cache.get("tags/2", true));
+        assertEquals(cache.size(), 0);
+
+        cache.put("tags/1", null);
+        cache.clear();
+        assertNull(cache.get("tags/1"));
+    }
+
+    @Test
+    public void testMismatchOnlyForIgnoringInstances() {
+        NegativeCache cache = new NegativeCache("test", 60000);
+        cache.putMismatch("tags/1");
+
+        assertNotNull(cache.get("tags/1", true));
+        // instance not ignoring type mismatch reads it again and fails
+        assertNull(cache.get("tags/1", false));
+        assertNull(cache.get("tags/1"));
+
+        cache.put("tags/2", null);
+        assertNotNull(cache.get("tags/2", false));
+        assertNotNull(cache.get("tags/2", true));
+    }
+}
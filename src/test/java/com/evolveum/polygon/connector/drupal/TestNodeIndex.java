@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+/**
+ * Lookups in both directions after put, replace and remove, also when probe sequences wrap around the end
+ * of the table, CLOCK eviction at maxSize and growing of tables.
+ */
+public class TestNodeIndex {
+
+    /**
+     * table length of index with initial capacity 16
+     */
+    private static final int TABLE_MASK = 31;
+
+    @Test
+    public void testPutReplaceRemove() {
+        NodeIndex index = new NodeIndex(0);
+        index.put("1", "Bratislava");
+        index.put("2", "Kosice");
+        assertEquals(index.getTitle("1"), "Bratislava");
+        assertEquals(index.getId("Kosice"), "2");
+        assertEquals(index.size(), 2);
+
+        // renamed node
+        index.put("1", "Presov");
+        assertEquals(index.getTitle("1"), "Presov");
+        assertEquals(index.getId("Presov"), "1");
+        assertNull(index.getId("Bratislava"));
+        assertEquals(index.size(), 2);
+
+        // title points to the last node put with it
+        index.put("3", "Kosice");
+        assertEquals(index.getId("Kosice"), "3");
+        assertEquals(index.getTitle("2"), "Kosice");
+
+        index.remove("3");
+        assertFalse(index.containsId("3"));
+        assertNull(index.getId("Kosice"));
+        index.remove("3");
+        assertEquals(index.size(), 2);
+
+        // removed slot is reused
+        index.put("4", "Nitra");
+        assertEquals(index.getTitle("4"), "Nitra");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("1", "Presov");
+        expected.put("2", "Kosice");
+        expected.put("4", "Nitra");
+        assertEquals(index.toMap(), expected);
+
+        // empty title is not indexed
+        index.put("5", "");
+        assertEquals(index.getTitle("5"), "");
+        assertNull(index.getId(""));
+    }
+
+    @Test
+    public void testDeleteWrappingAround() {
+        // NIDs and titles, which start probing at the last position of the table, so the next ones wrap to the beginning
+        List<String> ids = new ArrayList<>();
+        for (int nid = 1; ids.size() < 3; nid++) {
+            if ((NodeIndex.hash(nid) & TABLE_MASK) == TABLE_MASK) {
+                ids.add(String.valueOf(nid));
+            }
+        }
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; titles.size() < 3; i++) {
+            if ((NodeIndex.hash(("node" + i).hashCode()) & TABLE_MASK) == TABLE_MASK) {
+                titles.add("node" + i);
+            }
+        }
+        // and one, which starts at the beginning, behind the wrapped ones
+        String firstId = null;
+        for (int nid = 1; firstId == null; nid++) {
+            if ((NodeIndex.hash(nid) & TABLE_MASK) == 0) {
+                firstId = String.valueOf(nid);
+            }
+        }
+
+        NodeIndex index = new NodeIndex(0);
+        for (int i = 0; i < 3; i++) {
+            index.put(ids.get(i), titles.get(i));
+        }
+        index.put(firstId, "first");
+
+        index.remove(ids.get(0));
+        assertNull(index.getTitle(ids.get(0)));
+        assertNull(index.getId(titles.get(0)));
+        for (int i = 1; i < 3; i++) {
+            assertEquals(index.getTitle(ids.get(i)), titles.get(i));
+            assertEquals(index.getId(titles.get(i)), ids.get(i));
+        }
+        assertEquals(index.getTitle(firstId), "first");
+        assertEquals(index.getId("first"), firstId);
+
+        index.remove(ids.get(1));
+        assertEquals(index.getTitle(ids.get(2)), titles.get(2));
+        assertEquals(index.getId(titles.get(2)), ids.get(2));
+        assertEquals(index.getTitle(firstId), "first");
+        assertEquals(index.size(), 2);
+    }
+
+    @Test
+    public void testEviction() {
+        NodeIndex index = new NodeIndex(4);
+        for (int nid = 1; nid <= 4; nid++) {
+            index.put(String.valueOf(nid), "node" + nid);
+        }
+
+        // all were referenced, the first sweep clears them and evicts the first one
+        index.put("5", "node5");
+        assertEquals(index.size(), 4);
+        assertEquals(index.getEvictions(), 1);
+        assertFalse(index.containsId("1"));
+        assertNull(index.getId("node1"));
+
+        // referenced node survives the next sweep, not referenced one is evicted
+        assertEquals(index.getTitle("2"), "node2");
+        index.put("6", "node6");
+        assertEquals(index.getEvictions(), 2);
+        assertTrue(index.containsId("2"));
+        assertFalse(index.containsId("3"));
+        assertNull(index.getId("node3"));
+        assertEquals(index.getId("node6"), "6");
+        assertEquals(index.size(), 4);
+    }
+
+    @Test
+    public void testGrow() {
+        NodeIndex index = new NodeIndex(0);
+        for (int nid = 1; nid <= 1000; nid++) {
+            index.put(String.valueOf(nid), "node" + nid);
+            if (nid % 3 == 0) {
+                index.remove(String.valueOf(nid - 1));
+            }
+        }
+
+        Map<String, String> expected = new HashMap<>();
+        for (int nid = 1; nid <= 1000; nid++) {
+            if (nid % 3 == 2) {
+                assertNull(index.getTitle(String.valueOf(nid)));
+                assertNull(index.getId("node" + nid));
+            } else {
+                assertEquals(index.getTitle(String.valueOf(nid)), "node" + nid);
+                assertEquals(index.getId("node" + nid), String.valueOf(nid));
+                expected.put(String.valueOf(nid), "node" + nid);
+            }
+        }
+        assertEquals(index.size(), expected.size());
+        assertEquals(index.toMap(), expected);
+        assertEquals(index.getEvictions(), 0);
+
+        // capacity grows up to maxSize, which is not power of two
+        NodeIndex limited = new NodeIndex(20);
+        for (int nid = 1; nid <= 20; nid++) {
+            limited.put(String.valueOf(nid), "node" + nid);
+        }
+        for (int nid = 1; nid <= 20; nid++) {
+            assertEquals(limited.getId("node" + nid), String.valueOf(nid));
+        }
+        assertEquals(limited.getEvictions(), 0);
+        limited.put("21", "node21");
+        assertEquals(limited.size(), 20);
+        assertEquals(limited.getEvictions(), 1);
+    }
+}
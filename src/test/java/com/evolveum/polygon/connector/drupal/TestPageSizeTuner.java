@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Growing and shrinking of page size, and listing with adaptive page size against minimal local stand-in of Services
+ * user index resource, which limits page size to 20 as services_user_index_page_size does.
+ */
+public class TestPageSizeTuner {
+
+    private static final int USER_COUNT = 95;
+    private static final int SERVER_PAGE_SIZE_LIMIT = 20;
+    private static final String USERS = "http://drupal/rest/user";
+
+    private static DrupalStubServer server;
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                // offset is computed from limited page size
+                int pageSize = query.containsKey("pagesize") ? Integer.parseInt(query.get("pagesize")) : SERVER_PAGE_SIZE_LIMIT;
+                pageSize = Math.min(pageSize, SERVER_PAGE_SIZE_LIMIT);
+                int offset = query.containsKey("page") ? Integer.parseInt(query.get("page")) * pageSize : 0;
+                JSONArray users = new JSONArray();
+                for (int uid = 1 + offset; uid <= USER_COUNT && users.length() < pageSize; uid++) {
+                    JSONObject user = new JSONObject();
+                    user.put("uid", String.valueOf(uid));
+                    user.put("name", "user" + uid);
+                    users.put(user);
+                }
+
+                return users;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        PageSizeTuner tuner = new PageSizeTuner(true, 10, 5, 40, 1000);
+        assertEquals(tuner.getPageSize(USERS), 10);
+
+        // short page and slow page don't grow
+        tuner.success(USERS, 10, 7, 100);
+        assertEquals(tuner.getPageSize(USERS), 10);
+        tuner.success(USERS, 10, 10, 600);
+        assertEquals(tuner.getPageSize(USERS), 10);
+
+        tuner.success(USERS, 10, 10, 100);
+        assertEquals(tuner.getPageSize(USERS), 20);
+        // page requested before the change doesn't count
+        tuner.success(USERS, 10, 10, 100);
+        assertEquals(tuner.getPageSize(USERS), 20);
+        tuner.success(USERS, 20, 20, 100);
+        tuner.success(USERS, 40, 40, 100);
+        assertEquals(tuner.getPageSize(USERS), 40, "max. page size");
+        assertEquals(tuner.getGrows(), 2);
+
+        tuner.success(USERS, 40, 40, 1500);
+        assertEquals(tuner.getPageSize(USERS), 20);
+        assertEquals(tuner.failure(USERS, 20, new Exception("timeout")), 10);
+        assertEquals(tuner.failure(USERS, 10, new Exception("timeout")), 5);
+        assertEquals(tuner.failure(USERS, 5, new Exception("timeout")), 5, "min. page size");
+        assertEquals(tuner.getShrinks(), 3);
+        assertEquals(tuner.getFailures(), 3);
+
+        // other resource has own page size
+        assertEquals(tuner.getPageSize("http://drupal/rest/taxonomy_vocabulary"), 10);
+
+        PageSizeTuner disabled = new PageSizeTuner(false, 10, 5, 40, 1000);
+        disabled.success(USERS, 10, 10, 100);
+        assertEquals(disabled.failure(USERS, 10, new Exception("timeout")), 10);
+        assertTrue(disabled.isVerified(USERS, 1000));
+    }
+
+    @Test
+    public void testServerLimit() {
+        PageSizeTuner tuner = new PageSizeTuner(true, 10, 5, 1000, 1000);
+        assertTrue(tuner.isVerified(USERS, 10), "initial page size");
+        tuner.success(USERS, 10, 10, 100);
+        assertFalse(tuner.isVerified(USERS, 20));
+        tuner.success(USERS, 20, 20, 100);
+        assertTrue(tuner.isVerified(USERS, 20), "full page was read");
+        assertFalse(tuner.isVerified(USERS, 40));
+        assertEquals(tuner.getPageSize(USERS), 40);
+
+        tuner.limit(USERS, 20);
+        assertEquals(tuner.getPageSize(USERS), 20);
+        // smaller limit found by concurrent page
+        tuner.limit(USERS, 15);
+        assertEquals(tuner.getPageSize(USERS), 20);
+        tuner.success(USERS, 20, 20, 100);
+        assertEquals(tuner.getPageSize(USERS), 20, "never grows above limit");
+    }
+
+    private List<Integer> listAll(DrupalConnector conn) {
+        final List<Integer> uids = new ArrayList<>();
+        conn.executeQuery(accountObjectClass, null, new ResultsHandler() {
+            @Override
+            public boolean handle(ConnectorObject connectorObject) {
+                uids.add(Integer.parseInt(connectorObject.getUid().getUidValue()));
+                return true;
+            }
+        }, null);
+        return uids;
+    }
+
+    private DrupalConnector createConnector(int pageReadAhead) {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(10);
+        conf.setAdaptivePageSize(true);
+        conf.setPageResponseTimeTarget(60000);
+        conf.setPageReadAhead(pageReadAhead);
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        return conn;
+    }
+
+    private static List<Integer> expectedUids() {
+        List<Integer> uids = new ArrayList<>();
+        for (int uid = 1; uid <= USER_COUNT; uid++) {
+            uids.add(uid);
+        }
+        return uids;
+    }
+
+    @Test
+    public void testListingWithServerLimit() {
+        DrupalConnector conn = createConnector(0);
+        try {
+            // page size grows above server limit during listing
+            assertEquals(listAll(conn), expectedUids());
+            assertEquals(conn.pageSizeTuner.getPageSize(usersResource()), SERVER_PAGE_SIZE_LIMIT);
+            assertEquals(listAll(conn), expectedUids());
+        } finally {
+            conn.dispose();
+        }
+    }
+
+    @Test
+    public void testReadAheadWithServerLimit() {
+        DrupalConnector conn = createConnector(2);
+        try {
+            // page size grows after every listing, until the server limit is found
+            for (int i = 0; i < 4; i++) {
+                assertEquals(listAll(conn), expectedUids(), "listing " + i);
+            }
+            assertEquals(conn.pageSizeTuner.getPageSize(usersResource()), SERVER_PAGE_SIZE_LIMIT);
+        } finally {
+            conn.dispose();
+        }
+    }
+
+    /**
+     * @return listed resource of users, which has own page size
+     */
+    private static String usersResource() {
+        return server.getServiceAddress() + "/user?";
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Listing of all users in concurrently read ID ranges (findAllPartitions) against minimal local stand-in of Services
+ * user index resource with BETWEEN operator, IDs with gaps and slow first range.
+ */
+public class TestPartitions {
+
+    private static final int PAGE_SIZE = 5;
+    private static final int SLOW_UID = 15;
+
+    private static DrupalStubServer server;
+    private static final List<Integer> users = Collections.synchronizedList(new ArrayList<Integer>());
+    /**
+     * requested BETWEEN ranges
+     */
+    private static final List<long[]> ranges = Collections.synchronizedList(new ArrayList<long[]>());
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                long from = Long.MIN_VALUE;
+                long to = Long.MAX_VALUE;
+                if (query.containsKey("parameters[uid]")) {
+                    assertEquals(query.get("options[parameters_op][uid]"), "BETWEEN");
+                    String[] range = query.get("parameters[uid]").split(",");
+                    from = Long.parseLong(range[0]);
+                    to = Long.parseLong(range[1]);
+                    ranges.add(new long[]{from, to});
+                    if (from <= SLOW_UID) {
+                        // the first range comes the last
+                        sleep(100);
+                    }
+                }
+                List<Integer> matching = new ArrayList<>();
+                synchronized (users) {
+                    for (int uid : users) {
+                        if (uid >= from && uid <= to) {
+                            matching.add(uid);
+                        }
+                    }
+                }
+                if ("desc".equals(query.get("options[orderby][uid]"))) {
+                    Collections.reverse(matching);
+                }
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                JSONArray page = new JSONArray();
+                for (int i = offset; i < matching.size() && page.length() < pageSize; i++) {
+                    JSONObject user = new JSONObject();
+                    user.put("uid", String.valueOf(matching.get(i)));
+                    user.put("name", "user" + matching.get(i));
+                    page.put(user);
+                }
+
+                return page;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void setUsers(int fromUid, int toUid) {
+        users.clear();
+        ranges.clear();
+        for (int uid = fromUid; uid <= toUid; uid++) {
+            // gaps after deleted users
+            if (uid % 7 != 0) {
+                users.add(uid);
+            }
+        }
+    }
+
+    private List<Integer> listAll(int partitions, boolean ordered) {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+        conf.setFindAllPartitions(partitions);
+        conf.setFindAllPartitionsOrdered(ordered);
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        final List<Integer> uids = new ArrayList<>();
+        try {
+            conn.executeQuery(accountObjectClass, null, new ResultsHandler() {
+                @Override
+                public boolean handle(ConnectorObject connectorObject) {
+                    uids.add(Integer.parseInt(connectorObject.getUid().getUidValue()));
+                    return true;
+                }
+            }, null);
+        } finally {
+            conn.dispose();
+        }
+        return uids;
+    }
+
+    /**
+     * @return the first requested range of every partition, ordered
+     */
+    private List<long[]> partitionRanges() {
+        Map<Long, long[]> partitions = new TreeMap<>();
+        synchronized (ranges) {
+            for (long[] range : ranges) {
+                // next pages of the same partition have the same end
+                long[] known = partitions.get(range[1]);
+                if (known == null || known[0] > range[0]) {
+                    partitions.put(range[1], range);
+                }
+            }
+        }
+        return new ArrayList<>(partitions.values());
+    }
+
+    @Test
+    public void testPartitionBoundaries() {
+        setUsers(3, 47);
+        List<Integer> uids = listAll(4, false);
+
+        // every user exactly once, in any order
+        List<Integer> sorted = new ArrayList<>(uids);
+        Collections.sort(sorted);
+        assertEquals(sorted, users);
+
+        // ranges cover min - max without overlap
+        List<long[]> partitions = partitionRanges();
+        assertEquals(partitions.size(), 4);
+        assertEquals(partitions.get(0)[0], 3L);
+        assertEquals(partitions.get(3)[1], 47L);
+        for (int i = 1; i < partitions.size(); i++) {
+            assertEquals(partitions.get(i)[0], partitions.get(i - 1)[1] + 1);
+        }
+    }
+
+    @Test
+    public void testMorePartitionsThanIds() {
+        setUsers(5, 6);
+        assertEquals(listAll(4, true), Arrays.asList(5, 6));
+        // range can't be split to more partitions than IDs
+        assertEquals(partitionRanges().size(), 2);
+
+        setUsers(8, 8);
+        assertEquals(listAll(4, true), Collections.singletonList(8));
+
+        setUsers(7, 7);
+        assertEquals(listAll(4, true), Collections.<Integer>emptyList());
+        assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    public void testOrderedMerge() {
+        setUsers(1, 60);
+        // the first range is slow, but objects are returned ordered by ID
+        assertEquals(listAll(3, true), users);
+    }
+
+    @Test
+    public void testConnectionPoolSize() {
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setFindAllPartitions(6);
+        conf.setUserDetailsConcurrency(3);
+
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        try {
+            // every range and every user detail with own connection, and one for reference cache loading
+            assertEquals(conn.getMaxConnections(), 6 + 3 + 1);
+        } finally {
+            conn.dispose();
+        }
+    }
+}
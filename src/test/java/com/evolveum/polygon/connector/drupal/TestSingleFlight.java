@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * Concurrent callers of the same key wait for one load and share its result or exception.
+ */
+public class TestSingleFlight {
+
+    private static final int CALLERS = 8;
+
+    /**
+     * Calls the key from all callers, while the first load is blocked until all of them have called it.
+     *
+     * @return results of callers, or their exceptions
+     */
+    private List<Object> runConcurrently(final SingleFlight<String> flight, final Callable<String> loader) throws InterruptedException {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch called = new CountDownLatch(CALLERS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> blockingLoader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                loading.countDown();
+                release.await();
+                return loader.call();
+            }
+        };
+        final List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    called.countDown();
+                    try {
+                        results.add(flight.run("tags/1", blockingLoader));
+                    } catch (RuntimeException e) {
+                        results.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        // the rest of callers are waiting for the running load
+        Thread.sleep(100);
+        assertEquals(flight.size(), 1);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return results;
+    }
+
+    @Test
+    public void testOneLoadForConcurrentCallers() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+        List<Object> results = runConcurrently(flight, new Callable<String>() {
+            @Override
+            public String call() {
+                return "term" + loads.incrementAndGet();
+            }
+        });
+
+        assertEquals(loads.get(), 1);
+        assertEquals(results, Collections.nCopies(CALLERS, "term1"));
+        assertEquals(flight.size(), 0);
+
+        // result is not cached, the next call loads again
+        assertEquals(flight.run("tags/1", new Callable<String>() {
+            @Override
+            public String call() {
+                return "term" + loads.incrementAndGet();
+            }
+        }), "term2");
+    }
+
+    @Test
+    public void testExceptionForConcurrentCallers() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final UnknownUidException notFound = new UnknownUidException("TID 1 not found");
+        List<Object> results = runConcurrently(flight, new Callable<String>() {
+            @Override
+            public String call() {
+                loads.incrementAndGet();
+                throw notFound;
+            }
+        });
+
+        assertEquals(loads.get(), 1);
+        assertEquals(results, Collections.nCopies(CALLERS, notFound));
+        assertEquals(flight.size(), 0);
+    }
+}
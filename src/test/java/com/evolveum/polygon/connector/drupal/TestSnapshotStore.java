@@ -0,0 +1,372 @@
+/**
+ * Copyright (c) 2016 Evolveum
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.polygon.connector.drupal;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.identityconnectors.framework.common.objects.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.testng.Assert.*;
+
+/**
+ * Round trip of snapshot file and detection of created, changed and deleted objects, also by snapshot sync against
+ * minimal local stand-in of Services user index resource, and freshness of stored reference caches against stand-in
+ * of taxonomy_term index resource.
+ */
+public class TestSnapshotStore {
+
+    private static DrupalStubServer server;
+    /**
+     * user records by uid
+     */
+    private static final Map<Integer, JSONObject> users = Collections.synchronizedMap(new TreeMap<Integer, JSONObject>());
+    /**
+     * term names of referenced vocabulary by tid
+     */
+    private static final Map<Integer, String> terms = Collections.synchronizedMap(new TreeMap<Integer, String>());
+    /**
+     * requested fields of taxonomy term listings
+     */
+    private static final List<String> termListings = Collections.synchronizedList(new ArrayList<String>());
+
+    ObjectClass accountObjectClass = new ObjectClass(ObjectClass.ACCOUNT_NAME);
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new DrupalStubServer();
+        server.addResource("/rest/user", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                List<JSONObject> all;
+                synchronized (users) {
+                    all = new ArrayList<>(users.values());
+                }
+                JSONArray page = new JSONArray();
+                for (int i = offset; i < all.size() && page.length() < pageSize; i++) {
+                    JSONObject user = all.get(i);
+                    // only requested columns, as Services does
+                    page.put(query.containsKey("fields") ? new JSONObject(user, query.get("fields").split(",")) : user);
+                }
+
+                return page;
+            }
+        });
+        server.addResource("/rest/taxonomy_term", new DrupalStubServer.Resource() {
+            @Override
+            public Object handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+                assertEquals(query.get("parameters[vid]"), "1");
+                termListings.add(query.get("fields"));
+                List<Integer> tids;
+                synchronized (terms) {
+                    tids = new ArrayList<>(terms.keySet());
+                }
+                if ("desc".equals(query.get("options[orderby][tid]"))) {
+                    Collections.reverse(tids);
+                }
+                int pageSize = Integer.parseInt(query.get("pagesize"));
+                int offset = Integer.parseInt(query.get("page")) * pageSize;
+                JSONArray page = new JSONArray();
+                for (int i = offset; i < tids.size() && page.length() < pageSize; i++) {
+                    JSONObject term = new JSONObject();
+                    term.put("tid", String.valueOf(tids.get(i)));
+                    term.put("name", terms.get(tids.get(i)));
+                    page.put(new JSONObject(term, query.get("fields").split(",")));
+                }
+                return page;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        server.stop();
+    }
+
+    private static JSONObject user(int uid, String mail, long access) {
+        JSONObject user = new JSONObject();
+        user.put("uid", String.valueOf(uid));
+        user.put("name", "user" + uid);
+        user.put("mail", mail);
+        user.put("status", "1");
+        user.put("created", "100");
+        user.put("access", String.valueOf(access));
+        return user;
+    }
+
+    private static File newDirectory() throws IOException {
+        File directory = Files.createTempDirectory("drupal-snapshot").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testRoundTripAndDiff() throws IOException {
+        String directory = newDirectory().getPath();
+        SnapshotStore snapshot = new SnapshotStore(directory, "http://drupal/rest", ObjectClass.ACCOUNT_NAME);
+        assertFalse(snapshot.exists());
+        // listed not in ID order
+        assertTrue(snapshot.put(3, 30));
+        assertTrue(snapshot.put(1, 10));
+        assertTrue(snapshot.put(2, 20));
+        assertEquals(snapshot.getDeleted(), Collections.emptyList());
+        assertEquals(snapshot.save(), 1);
+
+        // the next connector instance reads saved snapshot
+        snapshot = new SnapshotStore(directory, "http://drupal/rest", ObjectClass.ACCOUNT_NAME);
+        assertTrue(snapshot.exists());
+        assertEquals(snapshot.getGeneration(), 1);
+        assertFalse(snapshot.put(1, 10), "not changed");
+        assertTrue(snapshot.put(2, 21), "changed");
+        assertTrue(snapshot.put(4, 40), "created");
+        assertEquals(snapshot.getDeleted(), Collections.singletonList(3L));
+        assertEquals(snapshot.save(), 2);
+
+        snapshot = new SnapshotStore(directory, "http://drupal/rest", ObjectClass.ACCOUNT_NAME);
+        assertEquals(snapshot.getGeneration(), 2);
+        assertFalse(snapshot.put(1, 10));
+        assertFalse(snapshot.put(2, 21));
+        assertFalse(snapshot.put(4, 40));
+        assertEquals(snapshot.getDeleted(), Collections.emptyList());
+
+        // other Drupal has own snapshot
+        assertFalse(new SnapshotStore(directory, "http://other/rest", ObjectClass.ACCOUNT_NAME).exists());
+    }
+
+    @Test
+    public void testConcurrentSave() throws Exception {
+        final String directory = newDirectory().getPath();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int section = i;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 20; j++) {
+                            SnapshotStore snapshot = new SnapshotStore(directory, "http://drupal/rest", ObjectClass.ACCOUNT_NAME);
+                            snapshot.put(section, j);
+                            snapshot.save();
+                            // other instances save other sections meanwhile
+                            ReferenceSnapshot references = new ReferenceSnapshot(directory, "http://drupal/rest", "taxonomy");
+                            references.put("vocabulary" + section, j, Collections.singletonMap(String.valueOf(j), "term" + j));
+                            references.save();
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(errors, Collections.emptyList());
+        assertTrue(new SnapshotStore(directory, "http://drupal/rest", ObjectClass.ACCOUNT_NAME).exists());
+        ReferenceSnapshot references = new ReferenceSnapshot(directory, "http://drupal/rest", "taxonomy");
+        for (int i = 0; i < 4; i++) {
+            assertEquals(references.getMarker("vocabulary" + i), 19);
+            assertEquals(references.read("vocabulary" + i), Collections.singletonMap("19", "term19"));
+        }
+        for (String name : new File(directory).list()) {
+            assertFalse(name.endsWith(".tmp"), name);
+        }
+    }
+
+    @Test
+    public void testHashOfAttributes() {
+        List<String> attributeNames = Arrays.asList(Name.NAME, "mail");
+        ConnectorObject object = new ConnectorObjectBuilder().setUid("1").setName("user1")
+                .addAttribute("mail", "user1@example.com").addAttribute("access", "100").build();
+        ConnectorObject otherAccess = new ConnectorObjectBuilder().setUid("1").setName("user1")
+                .addAttribute("access", "200").addAttribute("mail", "user1@example.com").build();
+        ConnectorObject otherMail = new ConnectorObjectBuilder().setUid("1").setName("user1")
+                .addAttribute("mail", "user1@example.org").addAttribute("access", "100").build();
+
+        // other attributes and their order are not compared
+        assertEquals(SnapshotStore.hash(otherAccess, attributeNames), SnapshotStore.hash(object, attributeNames));
+        assertNotEquals(SnapshotStore.hash(otherMail, attributeNames), SnapshotStore.hash(object, attributeNames));
+    }
+
+    @Test
+    public void testSnapshotSync() throws IOException {
+        users.clear();
+        for (int uid = 1; uid <= 3; uid++) {
+            users.put(uid, user(uid, "user" + uid + "@example.com", 100));
+        }
+
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setSnapshotSyncObjectClasses(new String[]{ObjectClass.ACCOUNT_NAME});
+        conf.setSnapshotSyncDirectory(newDirectory().getPath());
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        try {
+            SyncToken token = conn.getLatestSyncToken(accountObjectClass);
+            assertEquals(token.getValue(), "snapshot:1");
+
+            // user logged in and sync requests other attributes than snapshot was stored with
+            users.put(1, user(1, "user1@example.com", 200));
+            OperationOptions options = new OperationOptionsBuilder().setAttributesToGet(Name.NAME).build();
+            assertEquals(sync(conn, token, options), Collections.emptyList());
+
+            assertEquals(lastToken, null, "no delta");
+
+            users.put(2, user(2, "user2@example.org", 100));
+            users.remove(3);
+            users.put(4, user(4, "user4@example.com", 100));
+            assertEquals(sync(conn, token, null), Arrays.asList("CREATE_OR_UPDATE 2", "CREATE_OR_UPDATE 4", "DELETE 3"));
+            assertEquals(lastToken.getValue(), "snapshot:2");
+            token = lastToken;
+
+            // changes are handled, snapshot was replaced
+            assertEquals(sync(conn, token, options), Collections.emptyList());
+        } finally {
+            conn.dispose();
+        }
+    }
+
+    @Test
+    public void testSnapshotSyncWithOtherToken() throws IOException {
+        users.clear();
+        for (int uid = 1; uid <= 3; uid++) {
+            users.put(uid, user(uid, "user" + uid + "@example.com", 100));
+        }
+
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setSnapshotSyncObjectClasses(new String[]{ObjectClass.ACCOUNT_NAME});
+        conf.setSnapshotSyncDirectory(newDirectory().getPath());
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        try {
+            SyncToken first = conn.getLatestSyncToken(accountObjectClass);
+            SyncToken second = conn.getLatestSyncToken(accountObjectClass);
+            assertEquals(second.getValue(), "snapshot:2");
+
+            // other consumer replaced the snapshot, changes since the first token are not known
+            users.remove(3);
+            assertEquals(sync(conn, first, null), Arrays.asList("CREATE_OR_UPDATE 1", "CREATE_OR_UPDATE 2"));
+            assertEquals(lastToken.getValue(), "snapshot:3");
+            // the second consumer has also lost his base
+            assertEquals(sync(conn, second, null), Arrays.asList("CREATE_OR_UPDATE 1", "CREATE_OR_UPDATE 2"));
+            assertEquals(sync(conn, null, null), Arrays.asList("CREATE_OR_UPDATE 1", "CREATE_OR_UPDATE 2"));
+
+            users.put(4, user(4, "user4@example.com", 100));
+            assertEquals(sync(conn, lastToken, null), Collections.singletonList("CREATE_OR_UPDATE 4"));
+        } finally {
+            conn.dispose();
+        }
+    }
+
+    @Test
+    public void testFileKey() {
+        assertEquals(SnapshotStore.getFileKey("http://drupal/rest").length(), 64);
+        // addresses with the same String hash code
+        assertNotEquals(SnapshotStore.getFileKey("http://drupal/Aa"), SnapshotStore.getFileKey("http://drupal/BB"));
+    }
+
+    /**
+     * term names in taxonomyCache after the last start of connector by tid
+     */
+    private Map<String, String> cachedTerms;
+
+    /**
+     * @return requested fields of taxonomy term listings done by start of connector
+     */
+    private List<String> startWithReferences(String directory, long maxAge) {
+        termListings.clear();
+        cachedTerms = new TreeMap<>();
+        DrupalConfiguration conf = server.createConfiguration();
+        conf.setPageSize(3);
+        conf.setTaxonomies(new String[]{"positions:1"});
+        conf.setUserFields(new String[]{"field_position:tid:positions"});
+        conf.setAsyncCacheWarmup(false);
+        conf.setShareReferenceCaches(false);
+        conf.setReferenceSnapshotDirectory(directory);
+        conf.setReferenceSnapshotMaxAge(maxAge);
+        DrupalConnector conn = DrupalStubServer.createConnector(conf);
+        try {
+            synchronized (terms) {
+                for (Integer tid : terms.keySet()) {
+                    cachedTerms.put(String.valueOf(tid), conn.taxonomyCache.getName(conn, "positions", String.valueOf(tid)));
+                }
+            }
+        } finally {
+            conn.dispose();
+        }
+        return new ArrayList<>(termListings);
+    }
+
+    @Test
+    public void testReferenceSnapshotFreshness() throws Exception {
+        String directory = newDirectory().getPath();
+        terms.clear();
+        for (int tid = 1; tid <= 7; tid++) {
+            terms.put(tid, "term" + tid);
+        }
+        List<String> fullListing = Arrays.asList("tid,name", "tid,name", "tid,name");
+        List<String> freshnessCheck = Arrays.asList("tid", "tid", "tid", "tid");
+        assertEquals(startWithReferences(directory, 0), fullListing);
+        // max. TID by one request and count of TIDs
+        assertEquals(startWithReferences(directory, 0), freshnessCheck);
+        assertEquals(cachedTerms.get("7"), "term7");
+
+        // deleted term has the same max. TID, but other count
+        terms.remove(3);
+        List<String> listing = startWithReferences(directory, 0);
+        assertEquals(listing.subList(listing.size() - 3, listing.size()), fullListing);
+        assertEquals(startWithReferences(directory, 0), freshnessCheck);
+
+        // renamed term isn't detected until snapshot is older than max. age
+        terms.put(2, "renamed");
+        assertEquals(startWithReferences(directory, 60000), freshnessCheck);
+        assertEquals(cachedTerms.get("2"), "term2");
+        Thread.sleep(20);
+        assertEquals(startWithReferences(directory, 10), fullListing);
+        assertEquals(cachedTerms.get("2"), "renamed");
+    }
+
+    /**
+     * token of the last delta returned by sync, or null when sync didn't return any delta
+     */
+    private SyncToken lastToken;
+
+    private List<String> sync(DrupalConnector conn, SyncToken token, OperationOptions options) {
+        final List<String> deltas = new ArrayList<>();
+        lastToken = null;
+        conn.sync(accountObjectClass, token, new SyncResultsHandler() {
+            @Override
+            public boolean handle(SyncDelta delta) {
+                deltas.add(delta.getDeltaType() + " " + delta.getUid().getUidValue());
+                lastToken = delta.getToken();
+                return true;
+            }
+        }, options);
+        return deltas;
+    }
+}